@@ -0,0 +1,13 @@
+package com.muyuanjin.lognoiseless.benchmark;
+
+import com.muyuanjin.lognoiseless.StackLineSkipPredicate;
+
+/**
+ * PREDICATE_CLASS 模式使用的谓词，与白名单模式等价
+ */
+public class BenchmarkSkipPredicate implements StackLineSkipPredicate {
+    @Override
+    public boolean isShouldSkipLine(String line) {
+        return !line.startsWith("at " + Stacks.APP_PACKAGE);
+    }
+}
@@ -0,0 +1,79 @@
+package com.muyuanjin.lognoiseless.benchmark;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.muyuanjin.lognoiseless.NoiseLessThrowableProxyConverter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link NoiseLessThrowableProxyConverter#convert} 在不同堆栈形态、跳过模式和周期配置下的开销
+ * <p>
+ * 配置通过系统属性传入且只初始化一次，JMH 会为每组参数启动独立的 fork
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConverterBenchmark {
+    @Param({"WHITELIST", "BLACKLIST", "PREDICATE_CLASS", "JANINO_EXPRESSION"})
+    public String skipLineMode;
+    @Param({"SHALLOW", "DEEP", "CHAINED"})
+    public Stacks.Shape shape;
+    /**
+     * 0 时每次都跳过堆栈行，1 为布隆过滤器，大于 1 为布谷鸟过滤器
+     */
+    @Param({"0", "1", "5"})
+    public int maxNumPerCycle;
+
+    private NoiseLessThrowableProxyConverter converter;
+    private Logger logger;
+    private Throwable throwable;
+    private LoggingEvent event;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        System.setProperty("logback.stackTrace.skipLineMode", skipLineMode);
+        System.setProperty("logback.stackTrace.skipLine", skipLine(skipLineMode));
+        System.setProperty("logback.stackTrace.maxNumPerCycle", String.valueOf(maxNumPerCycle));
+        System.setProperty("logback.stackTrace.cycleDuration", "1h");
+        LoggerContext context = new LoggerContext();
+        logger = context.getLogger(ConverterBenchmark.class);
+        converter = new NoiseLessThrowableProxyConverter();
+        converter.setContext(context);
+        converter.start();
+        throwable = Stacks.create(shape, 0);
+    }
+
+    /**
+     * 每次记录日志都会创建新的 ThrowableProxy，与真实场景一致
+     */
+    @Setup(Level.Invocation)
+    public void newEvent() {
+        event = new LoggingEvent(Logger.FQCN, logger, ch.qos.logback.classic.Level.ERROR, "failed", throwable, null);
+    }
+
+    @Benchmark
+    public String convert() {
+        return converter.convert(event);
+    }
+
+    static String skipLine(String skipLineMode) {
+        switch (skipLineMode) {
+            case "WHITELIST":
+                return Stacks.APP_PACKAGE;
+            case "BLACKLIST":
+                return Stacks.FRAMEWORK_PACKAGES;
+            case "PREDICATE_CLASS":
+                return BenchmarkSkipPredicate.class.getName();
+            case "JANINO_EXPRESSION":
+                return "!line.startsWith(\"at " + Stacks.APP_PACKAGE + "\")";
+            default:
+                throw new IllegalArgumentException(skipLineMode);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.muyuanjin.lognoiseless.benchmark;
+
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import com.muyuanjin.lognoiseless.StackLineSkipPredicate;
+import com.muyuanjin.lognoiseless.internal.AbstractThrowableDuplicateFilter;
+import com.muyuanjin.lognoiseless.internal.BloomThrowableDuplicateFilter;
+import com.muyuanjin.lognoiseless.internal.CuckooThrowableDuplicateFilter;
+import com.muyuanjin.lognoiseless.internal.ShardedThrowableDuplicateFilter;
+import com.muyuanjin.lognoiseless.internal.SharedMappedThrowableDuplicateFilter;
+import com.muyuanjin.lognoiseless.internal.SlidingWindowThrowableDuplicateFilter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 重复堆栈过滤器在 1~128 线程并发下的吞吐，每次调用都使用新的异常代理对象，不会命中结果缓存
+ * <p>
+ * distinctStacks 较小时模拟少数几种异常集中爆发，所有线程反复判断同样的几个堆栈
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DuplicateFilterBenchmark {
+    @Param({"BLOOM", "CUCKOO", "SLIDING_WINDOW", "SHARDED", "SHARED_MMAP"})
+    public String filter;
+    /**
+     * 不同堆栈的数量，必须是 2 的幂
+     */
+    @Param({"16", "1024"})
+    public int distinctStacks;
+
+    private StackLineSkipPredicate predicate;
+    private StackTraceElementProxy[][] stacks;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private int index;
+    }
+
+    private Path sharedFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        StackLineSkipPredicate skipNothing = line -> false;
+        long maxMemory = AbstractThrowableDuplicateFilter.DEFAULT_MAX_MEMORY_BYTES;
+        switch (filter) {
+            case "BLOOM":
+                predicate = new BloomThrowableDuplicateFilter(Duration.ofHours(1), skipNothing);
+                break;
+            case "CUCKOO":
+                predicate = new CuckooThrowableDuplicateFilter(5, Duration.ofHours(1), skipNothing);
+                break;
+            case "SLIDING_WINDOW":
+                predicate = new SlidingWindowThrowableDuplicateFilter(5, Duration.ofHours(1), maxMemory, skipNothing);
+                break;
+            case "SHARDED":
+                predicate = new ShardedThrowableDuplicateFilter(5, Duration.ofHours(1), maxMemory, skipNothing);
+                break;
+            default:
+                sharedFile = Files.createTempFile("lognoiseless-benchmark", ".dedup");
+                predicate = new SharedMappedThrowableDuplicateFilter(sharedFile, 5, Duration.ofHours(1), maxMemory, skipNothing);
+        }
+        stacks = new StackTraceElementProxy[distinctStacks][];
+        for (int i = 0; i < distinctStacks; i++) {
+            stacks[i] = Stacks.proxyFrames(Stacks.Shape.SHALLOW, i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (sharedFile != null) {
+            Files.deleteIfExists(sharedFile);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean threads1(ThreadState state) {
+        return check(state);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean threads4(ThreadState state) {
+        return check(state);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean threads16(ThreadState state) {
+        return check(state);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public boolean threads64(ThreadState state) {
+        return check(state);
+    }
+
+    @Benchmark
+    @Threads(128)
+    public boolean threads128(ThreadState state) {
+        return check(state);
+    }
+
+    private boolean check(ThreadState state) {
+        StackTraceElementProxy[] frames = stacks[state.index++ & (distinctStacks - 1)];
+        return predicate.isShouldEnableSkip(new StubThrowableProxy(frames));
+    }
+}
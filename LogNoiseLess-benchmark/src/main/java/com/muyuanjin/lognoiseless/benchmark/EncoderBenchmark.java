@@ -0,0 +1,74 @@
+package com.muyuanjin.lognoiseless.benchmark;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.CoreConstants;
+import ch.qos.logback.core.pattern.PatternLayoutEncoderBase;
+import com.muyuanjin.lognoiseless.NoiseLessPatternLayoutEncoder;
+import com.muyuanjin.lognoiseless.NoiseLessThrowableProxyConverter;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PatternLayoutEncoder} 与 {@link NoiseLessPatternLayoutEncoder} 编码整条日志的开销，使用 -prof gc 对比分配
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EncoderBenchmark {
+    private static final String PATTERN = "%d{yyyy-MM-dd HH:mm:ss.SSS} %5level --- [%15.15thread] %-40.40logger{39} : %msg%n%wEx";
+    @Param({"PATTERN", "NOISELESS"})
+    public String encoderType;
+    @Param({"SHALLOW", "DEEP", "CHAINED"})
+    public Stacks.Shape shape;
+    /**
+     * 0 时每次都跳过堆栈行，-1 时不跳过（不配置 skipLine）
+     */
+    @Param({"-1", "0"})
+    public int maxNumPerCycle;
+
+    private PatternLayoutEncoderBase<ILoggingEvent> encoder;
+    private Logger logger;
+    private Throwable throwable;
+    private LoggingEvent event;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if (maxNumPerCycle >= 0) {
+            System.setProperty("logback.stackTrace.skipLineMode", "WHITELIST");
+            System.setProperty("logback.stackTrace.skipLine", Stacks.APP_PACKAGE);
+            System.setProperty("logback.stackTrace.maxNumPerCycle", String.valueOf(maxNumPerCycle));
+        }
+        LoggerContext context = new LoggerContext();
+        Map<String, String> ruleRegistry = new HashMap<>();
+        ruleRegistry.put("wEx", NoiseLessThrowableProxyConverter.class.getName());
+        context.putObject(CoreConstants.PATTERN_RULE_REGISTRY, ruleRegistry);
+        logger = context.getLogger(EncoderBenchmark.class);
+        encoder = "NOISELESS".equals(encoderType) ? new NoiseLessPatternLayoutEncoder() : new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern(PATTERN);
+        encoder.setCharset(StandardCharsets.UTF_8);
+        encoder.start();
+        throwable = Stacks.create(shape, 0);
+    }
+
+    @Setup(Level.Invocation)
+    public void newEvent() {
+        event = new LoggingEvent(Logger.FQCN, logger, ch.qos.logback.classic.Level.ERROR, "failed", throwable, null);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return encoder.encode(event);
+    }
+}
@@ -0,0 +1,81 @@
+package com.muyuanjin.lognoiseless.benchmark;
+
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.muyuanjin.lognoiseless.internal.AbstractThrowableDuplicateFilter;
+import com.muyuanjin.lognoiseless.internal.FingerprintStrategy;
+import com.muyuanjin.lognoiseless.internal.Funnels;
+import com.muyuanjin.lognoiseless.internal.StackFingerprint;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 堆栈去重时计算指纹的开销，使用 -prof gc 对比每次调用分配的字节数（gc.alloc.rate.norm）
+ * <p>
+ * {@link Funnels#DEFAULT} 为旧实现，每次都会拼接所有堆栈行并编码为 UTF-8，{@link StackFingerprint} 为当前实现，
+ * 其余为各个 {@link FingerprintStrategy} 对整个异常的计算开销，CHAINED 带有 cause 链
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+@SuppressWarnings("UnstableApiUsage")
+public class FingerprintBenchmark {
+    private static final HashFunction MURMUR3_128 = Hashing.murmur3_128();
+
+    @Param({"SHALLOW", "DEEP", "CHAINED"})
+    public Stacks.Shape shape;
+
+    private IThrowableProxy proxy;
+    private StackTraceElementProxy[] frames;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        proxy = new ThrowableProxy(Stacks.create(shape, 0));
+        frames = proxy.getStackTraceElementProxyArray();
+        //与真实场景一致，堆栈行字符串在渲染时已被 StackTraceElementProxy 缓存
+        for (StackTraceElementProxy frame : frames) {
+            frame.getSTEAsString();
+        }
+    }
+
+    @Benchmark
+    public long funnelsDefault() {
+        return MURMUR3_128.hashObject(frames, Funnels.DEFAULT).asLong();
+    }
+
+    @Benchmark
+    public long stackFingerprint() {
+        return StackFingerprint.of(frames);
+    }
+
+    @Benchmark
+    public long allFrames() {
+        return fingerprint(FingerprintStrategy.ALL_FRAMES);
+    }
+
+    @Benchmark
+    public long topFrames() {
+        return fingerprint(FingerprintStrategy.TOP_FRAMES);
+    }
+
+    @Benchmark
+    public long throwSites() {
+        return fingerprint(FingerprintStrategy.THROW_SITES);
+    }
+
+    @Benchmark
+    public long lineInsensitive() {
+        return fingerprint(FingerprintStrategy.LINE_INSENSITIVE);
+    }
+
+    private long fingerprint(FingerprintStrategy strategy) {
+        return strategy.of(proxy, AbstractThrowableDuplicateFilter.DEFAULT_FINGERPRINT_TOP_FRAMES);
+    }
+}
@@ -0,0 +1,87 @@
+package com.muyuanjin.lognoiseless.benchmark;
+
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.muyuanjin.lognoiseless.internal.IdentityDecisionCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 同一事件被多个 appender 输出时复用重复堆栈判断结果的开销，每次调用创建一个新的异常代理对象并查询 appenders 次，
+ * 判断本身只返回常量，只比较缓存的开销，使用 -prof gc 对比每次调用分配的字节数（gc.alloc.rate.norm）
+ * <p>
+ * {@link #caffeineWeakKeys} 为旧实现，每个新对象都会创建 WeakReference 并由 ReferenceQueue 清理，{@link #identityRing} 为当前实现
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResultCacheBenchmark {
+    /**
+     * 每个事件输出的 appender 数量
+     */
+    @Param({"2"})
+    public int appenders;
+
+    private Cache<IThrowableProxy, Boolean> caffeine;
+    private IdentityDecisionCache<IThrowableProxy> ring;
+    private StackTraceElementProxy[] frames;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        caffeine = Caffeine.newBuilder().weakKeys().recordStats().build();
+        ring = new IdentityDecisionCache<>();
+        frames = Stacks.proxyFrames(Stacks.Shape.SHALLOW, 0);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean caffeineWeakKeys() {
+        return caffeine();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean identityRing() {
+        return ring();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean caffeineWeakKeys8() {
+        return caffeine();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean identityRing8() {
+        return ring();
+    }
+
+    private boolean caffeine() {
+        IThrowableProxy proxy = new StubThrowableProxy(frames);
+        boolean result = false;
+        for (int i = 0; i < appenders; i++) {
+            result ^= Boolean.TRUE.equals(caffeine.get(proxy, ResultCacheBenchmark::decide));
+        }
+        return result;
+    }
+
+    private boolean ring() {
+        IThrowableProxy proxy = new StubThrowableProxy(frames);
+        boolean result = false;
+        for (int i = 0; i < appenders; i++) {
+            result ^= ring.get(proxy, ResultCacheBenchmark::decide);
+        }
+        return result;
+    }
+
+    private static boolean decide(IThrowableProxy proxy) {
+        return proxy.getStackTraceElementProxyArray().length > 8;
+    }
+}
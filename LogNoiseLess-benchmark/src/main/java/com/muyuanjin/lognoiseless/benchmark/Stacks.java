@@ -0,0 +1,103 @@
+package com.muyuanjin.lognoiseless.benchmark;
+
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+
+/**
+ * 基准测试使用的模拟堆栈，框架帧取自典型的 Spring MVC + Tomcat 调用链
+ */
+public final class Stacks {
+    /**
+     * 业务代码包名，白名单模式使用
+     */
+    public static final String APP_PACKAGE = "com.example";
+    /**
+     * 框架包名，黑名单模式使用
+     */
+    public static final String FRAMEWORK_PACKAGES = "org.springframework,org.apache,java,javax,sun,jdk,com.fasterxml,io.netty";
+
+    private static final String[][] FRAMEWORK_FRAMES = {
+            {"org.springframework.web.servlet.mvc.method.annotation.ServletInvocableHandlerMethod", "invokeAndHandle", "ServletInvocableHandlerMethod.java"},
+            {"org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter", "invokeHandlerMethod", "RequestMappingHandlerAdapter.java"},
+            {"org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter", "handleInternal", "RequestMappingHandlerAdapter.java"},
+            {"org.springframework.web.servlet.mvc.method.AbstractHandlerMethodAdapter", "handle", "AbstractHandlerMethodAdapter.java"},
+            {"org.springframework.web.servlet.DispatcherServlet", "doDispatch", "DispatcherServlet.java"},
+            {"org.springframework.web.servlet.DispatcherServlet", "doService", "DispatcherServlet.java"},
+            {"org.springframework.web.servlet.FrameworkServlet", "processRequest", "FrameworkServlet.java"},
+            {"org.springframework.web.servlet.FrameworkServlet", "doPost", "FrameworkServlet.java"},
+            {"javax.servlet.http.HttpServlet", "service", "HttpServlet.java"},
+            {"org.springframework.web.servlet.FrameworkServlet", "service", "FrameworkServlet.java"},
+            {"org.apache.catalina.core.ApplicationFilterChain", "internalDoFilter", "ApplicationFilterChain.java"},
+            {"org.apache.catalina.core.ApplicationFilterChain", "doFilter", "ApplicationFilterChain.java"},
+            {"org.springframework.web.filter.OncePerRequestFilter", "doFilter", "OncePerRequestFilter.java"},
+            {"org.springframework.web.filter.CharacterEncodingFilter", "doFilterInternal", "CharacterEncodingFilter.java"},
+            {"org.springframework.aop.framework.ReflectiveMethodInvocation", "proceed", "ReflectiveMethodInvocation.java"},
+            {"org.springframework.transaction.interceptor.TransactionInterceptor", "invoke", "TransactionInterceptor.java"},
+            {"org.springframework.aop.framework.CglibAopProxy$DynamicAdvisedInterceptor", "intercept", "CglibAopProxy.java"},
+            {"sun.reflect.NativeMethodAccessorImpl", "invoke0", null},
+            {"sun.reflect.DelegatingMethodAccessorImpl", "invoke", "DelegatingMethodAccessorImpl.java"},
+            {"java.lang.reflect.Method", "invoke", "Method.java"},
+            {"org.apache.catalina.core.StandardWrapperValve", "invoke", "StandardWrapperValve.java"},
+            {"org.apache.catalina.core.StandardContextValve", "invoke", "StandardContextValve.java"},
+            {"org.apache.catalina.connector.CoyoteAdapter", "service", "CoyoteAdapter.java"},
+            {"org.apache.coyote.http11.Http11Processor", "service", "Http11Processor.java"},
+            {"org.apache.tomcat.util.net.NioEndpoint$SocketProcessor", "doRun", "NioEndpoint.java"},
+            {"java.util.concurrent.ThreadPoolExecutor", "runWorker", "ThreadPoolExecutor.java"},
+            {"java.lang.Thread", "run", "Thread.java"},
+    };
+
+    public enum Shape {
+        /**
+         * 约 30 帧
+         */
+        SHALLOW(30, 0),
+        /**
+         * 约 300 帧
+         */
+        DEEP(300, 0),
+        /**
+         * 约 150 帧，带 3 层 cause
+         */
+        CHAINED(150, 3);
+
+        private final int depth;
+        private final int causes;
+
+        Shape(int depth, int causes) {
+            this.depth = depth;
+            this.causes = causes;
+        }
+    }
+
+    private Stacks() {
+    }
+
+    /**
+     * @param variant 不同的 variant 会产生不同行号的业务帧，即不同的堆栈指纹
+     */
+    public static Throwable create(Shape shape, int variant) {
+        Throwable cause = null;
+        for (int i = shape.causes; i >= 0; i--) {
+            Throwable throwable = i == 0 ? new IllegalStateException("order " + variant + " failed", cause)
+                    : new RuntimeException("cause " + i, cause);
+            throwable.setStackTrace(frames(shape.depth - i * 10, variant + i));
+            cause = throwable;
+        }
+        return cause;
+    }
+
+    public static StackTraceElementProxy[] proxyFrames(Shape shape, int variant) {
+        return new ThrowableProxy(create(shape, variant)).getStackTraceElementProxyArray();
+    }
+
+    private static StackTraceElement[] frames(int depth, int variant) {
+        StackTraceElement[] frames = new StackTraceElement[depth];
+        frames[0] = new StackTraceElement(APP_PACKAGE + ".order.OrderService", "place", "OrderService.java", 42 + variant);
+        frames[1] = new StackTraceElement(APP_PACKAGE + ".order.OrderController", "submit", "OrderController.java", 27);
+        for (int i = 2; i < depth; i++) {
+            String[] frame = FRAMEWORK_FRAMES[(i - 2) % FRAMEWORK_FRAMES.length];
+            frames[i] = new StackTraceElement(frame[0], frame[1], frame[2], frame[2] == null ? -2 : 100 + i);
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,45 @@
+package com.muyuanjin.lognoiseless.benchmark;
+
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+
+/**
+ * 轻量的异常代理，创建时不需要遍历堆栈，用于只关心过滤器开销的基准测试
+ */
+public final class StubThrowableProxy implements IThrowableProxy {
+    private final StackTraceElementProxy[] frames;
+
+    public StubThrowableProxy(StackTraceElementProxy[] frames) {
+        this.frames = frames;
+    }
+
+    @Override
+    public String getMessage() {
+        return "stub";
+    }
+
+    @Override
+    public String getClassName() {
+        return IllegalStateException.class.getName();
+    }
+
+    @Override
+    public StackTraceElementProxy[] getStackTraceElementProxyArray() {
+        return frames;
+    }
+
+    @Override
+    public int getCommonFrames() {
+        return 0;
+    }
+
+    @Override
+    public IThrowableProxy getCause() {
+        return null;
+    }
+
+    @Override
+    public IThrowableProxy[] getSuppressed() {
+        return new IThrowableProxy[0];
+    }
+}
@@ -0,0 +1,173 @@
+package com.muyuanjin.lognoiseless;
+
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.pattern.Converter;
+import ch.qos.logback.core.pattern.PatternLayoutEncoderBase;
+import ch.qos.logback.core.pattern.PostCompileProcessor;
+import com.muyuanjin.lognoiseless.internal.ExtensibleExtendedWhitespaceThrowableProxyConverter;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 输出与 {@link ch.qos.logback.classic.encoder.PatternLayoutEncoder} 逐字节一致的编码器，
+ * 整条日志（包括异常堆栈）直接渲染到池化复用的缓冲区再编码为字节，省去异常堆栈和整条日志的中间字符串以及 StringBuilder 的反复扩容
+ * <p>
+ * 缓冲区池与 {@link com.muyuanjin.lognoiseless.internal.RenderBuffers} 相同，无锁且不依赖 ThreadLocal，虚拟线程下同样可以复用。
+ * logback 的 {@link ch.qos.logback.core.encoder.Encoder#encode} 只能返回独立的 byte[]，由 appender 写入输出流，
+ * 因此最后仍需复制一次编码结果
+ * <pre>{@code
+ * <appender name="CONSOLE" class="ch.qos.logback.core.ConsoleAppender">
+ *     <encoder class="com.muyuanjin.lognoiseless.NoiseLessPatternLayoutEncoder">
+ *         <pattern>${CONSOLE_LOG_PATTERN}</pattern>
+ *         <charset>${CONSOLE_LOG_CHARSET}</charset>
+ *     </encoder>
+ * </appender>
+ * }</pre>
+ *
+ * @author muyuanjin
+ */
+public class NoiseLessPatternLayoutEncoder extends PatternLayoutEncoderBase<ILoggingEvent> {
+    private static final int INITIAL_CHARS = 4096;
+    /**
+     * 超过该字符数的缓冲区归还时丢弃，避免偶发的超长日志长期占用内存
+     */
+    private static final int MAX_RETAINED_CHARS = 64 * 1024;
+    private static final int SLOTS = Integer.highestOneBit(Math.min(64, Math.max(2, Runtime.getRuntime().availableProcessors() * 2)));
+    private static final int MASK = SLOTS - 1;
+    private static final AtomicReferenceArray<Buffers> POOL = new AtomicReferenceArray<>(SLOTS);
+
+    @Override
+    public void start() {
+        StreamingPatternLayout patternLayout = new StreamingPatternLayout();
+        patternLayout.setContext(context);
+        patternLayout.setPattern(getPattern());
+        patternLayout.setOutputPatternAsHeader(outputPatternAsHeader);
+        patternLayout.start();
+        this.layout = patternLayout;
+        super.start();
+    }
+
+    @Override
+    public byte[] encode(ILoggingEvent event) {
+        if (!(layout instanceof StreamingPatternLayout) || !layout.isStarted()) {
+            return super.encode(event);
+        }
+        //渲染过程中再次编码（例如转换器内部打印日志）时会取到另一个缓冲区
+        Buffers buffers = acquire();
+        try {
+            ((StreamingPatternLayout) layout).doLayout(event, buffers.chars);
+            Charset charset = getCharset();
+            return buffers.encode(charset == null ? Charset.defaultCharset() : charset);
+        } finally {
+            release(buffers);
+        }
+    }
+
+    private static Buffers acquire() {
+        int start = probe();
+        for (int i = 0; i < SLOTS; i++) {
+            int index = (start + i) & MASK;
+            Buffers buffers = POOL.get(index);
+            if (buffers != null && POOL.compareAndSet(index, buffers, null)) {
+                return buffers;
+            }
+        }
+        return new Buffers();
+    }
+
+    private static void release(Buffers buffers) {
+        if (buffers.isOversized()) {
+            return;
+        }
+        buffers.chars.setLength(0);
+        int start = probe();
+        for (int i = 0; i < SLOTS; i++) {
+            int index = (start + i) & MASK;
+            if (POOL.get(index) == null && POOL.compareAndSet(index, null, buffers)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 不同线程从不同的槽位开始查找，减少竞争
+     */
+    private static int probe() {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 16)) & MASK;
+    }
+
+    /**
+     * 记录转换器链表头，按链表顺序渲染到调用方的 StringBuilder 中
+     */
+    private static final class StreamingPatternLayout extends PatternLayout {
+        private Converter<ILoggingEvent> head;
+
+        private StreamingPatternLayout() {
+            PostCompileProcessor<ILoggingEvent> ensureExceptionHandling = this.postCompileProcessor;
+            this.postCompileProcessor = (context, head) -> {
+                ensureExceptionHandling.process(context, head);
+                this.head = head;
+            };
+        }
+
+        /**
+         * 与 {@link PatternLayout#doLayout(ILoggingEvent)} 相同的遍历顺序，异常转换器直接追加到 out 中
+         */
+        private void doLayout(ILoggingEvent event, StringBuilder out) {
+            for (Converter<ILoggingEvent> c = head; c != null; c = c.getNext()) {
+                if (c instanceof ExtensibleExtendedWhitespaceThrowableProxyConverter
+                        && ((ExtensibleExtendedWhitespaceThrowableProxyConverter) c).getFormattingInfo() == null) {
+                    ((ExtensibleExtendedWhitespaceThrowableProxyConverter) c).appendTo(out, event);
+                } else {
+                    c.write(out, event);
+                }
+            }
+        }
+    }
+
+    private static final class Buffers {
+        private final StringBuilder chars = new StringBuilder(INITIAL_CHARS);
+        private char[] charArray = new char[INITIAL_CHARS];
+        private ByteBuffer bytes = ByteBuffer.allocate(INITIAL_CHARS * 3);
+        private CharsetEncoder encoder;
+
+        /**
+         * 与 {@link String#getBytes(Charset)} 相同，无法编码的字符替换为编码器的默认替换字节
+         */
+        private byte[] encode(Charset charset) {
+            CharsetEncoder encoder = this.encoder;
+            if (encoder == null || !encoder.charset().equals(charset)) {
+                this.encoder = encoder = charset.newEncoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            }
+            int length = chars.length();
+            if (charArray.length < length) {
+                charArray = new char[Math.max(length, charArray.length * 2)];
+            }
+            chars.getChars(0, length, charArray, 0);
+            int maxBytes = (int) Math.ceil(length * (double) encoder.maxBytesPerChar());
+            if (bytes.capacity() < maxBytes) {
+                bytes = ByteBuffer.allocate(Math.max(maxBytes, bytes.capacity() * 2));
+            }
+            bytes.clear();
+            CharBuffer in = CharBuffer.wrap(charArray, 0, length);
+            encoder.reset();
+            encoder.encode(in, bytes, true);
+            encoder.flush(bytes);
+            return Arrays.copyOf(bytes.array(), bytes.position());
+        }
+
+        private boolean isOversized() {
+            return chars.capacity() > MAX_RETAINED_CHARS || charArray.length > MAX_RETAINED_CHARS || bytes.capacity() > MAX_RETAINED_CHARS * 3;
+        }
+    }
+}
@@ -1,11 +1,25 @@
 package com.muyuanjin.lognoiseless;
 
 import ch.qos.logback.classic.pattern.ThrowableProxyConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import ch.qos.logback.core.CoreConstants;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.muyuanjin.lognoiseless.internal.ExtensibleExtendedWhitespaceThrowableProxyConverter;
 import com.muyuanjin.lognoiseless.internal.NoiseLessConfig;
+import com.muyuanjin.lognoiseless.internal.RenderBudget;
+import com.muyuanjin.lognoiseless.internal.StackFingerprint;
+import com.muyuanjin.lognoiseless.metrics.NoiseLessMetrics;
+import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -16,39 +30,320 @@ import java.util.concurrent.atomic.AtomicBoolean;
 @Slf4j
 public class NoiseLessThrowableProxyConverter extends ExtensibleExtendedWhitespaceThrowableProxyConverter {
     private static final AtomicBoolean FAILED_PREDICATE = new AtomicBoolean(false);
+    /**
+     * 跳过模式下的堆栈帧渲染模板，与创建它的配置绑定，配置变更后重建
+     */
+    @Nullable
+    private volatile FrameTemplates frameTemplates;
 
     @Override
     public void start() {
         NoiseLessConfig.INSTANCE.getIfSpringEnvReady();
+        NoiseLessMetrics.registerJmxIfNecessary();
         super.start();
     }
 
+    @Override
+    protected String throwableProxyToString(ILoggingEvent event, IThrowableProxy tp) {
+        long start = System.nanoTime();
+        String rendered = super.throwableProxyToString(event, tp);
+        NoiseLessMetrics.recordConvert(System.nanoTime() - start);
+        return rendered;
+    }
+
+    @Override
+    protected boolean isRenderCacheEnabled() {
+        NoiseLessConfig config = NoiseLessConfig.INSTANCE.getIfSpringEnvReady();
+        return config != null && config.isRenderCacheEnabled();
+    }
+
+    @Override
+    protected int getFoldMinRepeats() {
+        NoiseLessConfig config = NoiseLessConfig.INSTANCE.getIfSpringEnvReady();
+        return config == null ? 0 : config.getFoldMinRepeats();
+    }
+
+    @Override
+    protected void appendThrowableProxy(StringBuilder out, ILoggingEvent event, IThrowableProxy tp) {
+        long start = System.nanoTime();
+        super.appendThrowableProxy(out, event, tp);
+        NoiseLessMetrics.recordConvert(System.nanoTime() - start);
+    }
+
+    /**
+     * 配置了渲染预算时按剩余令牌依次降级为跳过堆栈帧、只打印前几帧、只打印首行，渲染后扣除实际输出的字符数
+     */
+    @Override
+    protected void renderThrowableProxy(StringBuilder sb, IThrowableProxy tp, boolean shouldEnableIgnore) {
+        RenderBudget budget = getRenderBudget();
+        if (budget == null) {
+            renderWithTemplates(sb, tp, shouldEnableIgnore);
+            return;
+        }
+        int start = sb.length();
+        RenderBudget.Level level = budget.acquire();
+        switch (level) {
+            case NONE:
+                renderWithTemplates(sb, tp, shouldEnableIgnore);
+                break;
+            case SKIP_FRAMES:
+                long skippedChars = renderWithTemplates(sb, tp, true);
+                if (!shouldEnableIgnore) {
+                    NoiseLessMetrics.recordDegrade(level, Math.max(0, skippedChars));
+                }
+                break;
+            default:
+                renderDegraded(sb, tp, level, level == RenderBudget.Level.TOP_FRAMES ? Math.min(budget.getTopFrames(), lengthOption) : 0);
+        }
+        budget.consume(sb.length() - start);
+    }
+
+    /**
+     * @return 被跳过和折叠的堆栈帧估算的字符数
+     */
+    private long renderWithTemplates(StringBuilder sb, IThrowableProxy tp, boolean shouldEnableIgnore) {
+        FrameTemplates templates;
+        if (!shouldEnableIgnore || FAILED_PREDICATE.get() || (templates = getFrameTemplates()) == null) {
+            return renderAndCount(sb, tp, shouldEnableIgnore);
+        }
+        //重复的异常只有每个节点的首行（类名和消息）会变化，堆栈帧部分按整条异常链的指纹缓存，命中时逐帧核对后只需拼接首行
+        long fingerprint = StackFingerprint.ofChain(tp);
+        FrameTemplate template = templates.cache.getIfPresent(fingerprint);
+        int start = sb.length();
+        sb.append(CoreConstants.LINE_SEPARATOR);
+        if (template != null && appendFromTemplate(sb, null, ThrowableProxyUtil.REGULAR_EXCEPTION_INDENT, tp, template, 0) == template.blocks.length) {
+            sb.append(CoreConstants.LINE_SEPARATOR);
+            onRendered(tp, true, template.skippedFrames, sb.length() - start, template.skippedChars);
+            return template.skippedChars;
+        }
+        sb.setLength(start + CoreConstants.LINE_SEPARATOR.length());
+        List<String> newBlocks = new ArrayList<>();
+        List<IThrowableProxy> nodes = new ArrayList<>();
+        takeSkippedFrames();
+        takeSkippedChars();
+        appendAndCollectBlocks(sb, null, ThrowableProxyUtil.REGULAR_EXCEPTION_INDENT, tp, newBlocks, nodes);
+        int skippedFrames = takeSkippedFrames();
+        long skippedChars = takeSkippedChars();
+        templates.cache.put(fingerprint, new FrameTemplate(newBlocks.toArray(new String[0]), nodes, skippedFrames, skippedChars));
+        sb.append(CoreConstants.LINE_SEPARATOR);
+        onRendered(tp, true, skippedFrames, sb.length() - start, skippedChars);
+        return skippedChars;
+    }
+
+    /**
+     * 每个异常只打印跳过后的前 topFrames 帧，为0时只打印首行
+     */
+    private void renderDegraded(StringBuilder sb, IThrowableProxy tp, RenderBudget.Level level, int topFrames) {
+        int start = sb.length();
+        takeSkippedFrames();
+        takeSkippedChars();
+        sb.append(CoreConstants.LINE_SEPARATOR);
+        appendDegraded(sb, null, ThrowableProxyUtil.REGULAR_EXCEPTION_INDENT, tp, topFrames);
+        sb.append(CoreConstants.LINE_SEPARATOR);
+        long savedChars = Math.max(0, takeSkippedChars());
+        NoiseLessMetrics.recordRender(true, takeSkippedFrames(), sb.length() - start, savedChars);
+        NoiseLessMetrics.recordDegrade(level, savedChars);
+    }
+
+    /**
+     * 与 {@link #recursiveAppend} 相同的遍历顺序，未打印的堆栈帧数量及其估算的字符数通过 {@link #addSkippedFrames(int, long)} 累计
+     */
+    private void appendDegraded(StringBuilder sb, String prefix, int indent, IThrowableProxy tp, int topFrames) {
+        if (tp == null) {
+            return;
+        }
+        subjoinFirstLine(sb, prefix, indent, tp);
+        sb.append(CoreConstants.LINE_SEPARATOR);
+        StackTraceElementProxy[] stepArray = tp.getStackTraceElementProxyArray();
+        int commonFrames = tp.getCommonFrames();
+        int count = Math.max(0, stepArray.length - Math.max(0, commonFrames));
+        int separator = CoreConstants.LINE_SEPARATOR.length();
+        long omittedChars = 0;
+        int printed = 0;
+        int ignoredCount = 0;
+        int i = 0;
+        //逐帧判断，打印够数量后不再判断剩余的帧
+        for (; i < count && printed < topFrames; i++) {
+            StackTraceElementProxy element = stepArray[i];
+            if (isIgnoredStackTraceLine(element)) {
+                ++ignoredCount;
+                omittedChars += indent + estimateLineLength(element.getStackTraceElement()) + separator;
+                continue;
+            }
+            ThrowableProxyUtil.indent(sb, indent);
+            printStackLine(sb, ignoredCount, element);
+            sb.append(CoreConstants.LINE_SEPARATOR);
+            if (ignoredCount > 0) {
+                omittedChars -= 11 + stringSize(ignoredCount);
+            }
+            ignoredCount = 0;
+            printed++;
+        }
+        //完整渲染时会打印的剩余帧只累加估算的长度，不判断、不生成字符串
+        boolean unrestrictedPrinting = lengthOption > stepArray.length;
+        int fullCount = unrestrictedPrinting ? count : Math.min(count, lengthOption);
+        for (int j = i; j < fullCount; j++) {
+            omittedChars += indent + estimateLineLength(stepArray[j].getStackTraceElement()) + separator;
+        }
+        if (commonFrames > 0 && unrestrictedPrinting) {
+            omittedChars += indent + 4 + stringSize(commonFrames) + 22 + separator;
+        }
+        if (topFrames > 0 && count - i + ignoredCount > 0) {
+            int lineStart = sb.length();
+            ThrowableProxyUtil.indent(sb, indent);
+            sb.append("... ").append(count - i + ignoredCount).append(" frames omitted").append(CoreConstants.LINE_SEPARATOR);
+            omittedChars -= sb.length() - lineStart;
+        }
+        addSkippedFrames(count - printed, omittedChars);
+        IThrowableProxy[] suppressed = tp.getSuppressed();
+        if (suppressed != null) {
+            for (IThrowableProxy current : suppressed) {
+                appendDegraded(sb, CoreConstants.SUPPRESSED, indent + ThrowableProxyUtil.SUPPRESSED_EXCEPTION_INDENT, current, topFrames);
+            }
+        }
+        appendDegraded(sb, CoreConstants.CAUSED_BY, indent, tp.getCause(), topFrames);
+    }
+
+    @Override
+    protected void onRendered(IThrowableProxy tp, boolean shouldEnableIgnore, int skippedFrames, int renderedChars, long skippedChars) {
+        NoiseLessMetrics.recordRender(shouldEnableIgnore, skippedFrames, renderedChars, Math.max(0, skippedChars));
+    }
+
+    /**
+     * 与 {@link #recursiveAppend} 相同的遍历顺序，使用模板中的堆栈帧块
+     *
+     * @return 已使用的堆栈帧块数量，结构或堆栈帧与模板不一致（如指纹碰撞）时返回 -1
+     */
+    private int appendFromTemplate(StringBuilder sb, String prefix, int indent, IThrowableProxy tp, FrameTemplate template, int index) {
+        if (tp == null) {
+            return index;
+        }
+        if (index < 0 || index >= template.blocks.length || !template.matches(index, tp)) {
+            return -1;
+        }
+        subjoinFirstLine(sb, prefix, indent, tp);
+        sb.append(CoreConstants.LINE_SEPARATOR);
+        sb.append(template.blocks[index++]);
+        IThrowableProxy[] suppressed = tp.getSuppressed();
+        if (suppressed != null) {
+            for (IThrowableProxy current : suppressed) {
+                index = appendFromTemplate(sb, CoreConstants.SUPPRESSED, indent + ThrowableProxyUtil.SUPPRESSED_EXCEPTION_INDENT, current, template, index);
+            }
+        }
+        return appendFromTemplate(sb, CoreConstants.CAUSED_BY, indent, tp.getCause(), template, index);
+    }
+
+    /**
+     * 与 {@link #recursiveAppend} 相同的遍历顺序，同时收集每个节点及其堆栈帧块，被跳过的堆栈帧数量及其估算的字符数通过 {@link #addSkippedFrames(int, long)} 累计
+     */
+    private void appendAndCollectBlocks(StringBuilder sb, String prefix, int indent, IThrowableProxy tp, List<String> blocks, List<IThrowableProxy> nodes) {
+        if (tp == null) {
+            return;
+        }
+        subjoinFirstLine(sb, prefix, indent, tp);
+        sb.append(CoreConstants.LINE_SEPARATOR);
+        int start = sb.length();
+        subjoinSTEPArray(sb, indent, true, tp);
+        blocks.add(sb.substring(start));
+        nodes.add(tp);
+        IThrowableProxy[] suppressed = tp.getSuppressed();
+        if (suppressed != null) {
+            for (IThrowableProxy current : suppressed) {
+                appendAndCollectBlocks(sb, CoreConstants.SUPPRESSED, indent + ThrowableProxyUtil.SUPPRESSED_EXCEPTION_INDENT, current, blocks, nodes);
+            }
+        }
+        appendAndCollectBlocks(sb, CoreConstants.CAUSED_BY, indent, tp.getCause(), blocks, nodes);
+    }
+
+    @Nullable
+    private static RenderBudget getRenderBudget() {
+        NoiseLessConfig config = NoiseLessConfig.INSTANCE.getIfSpringEnvReady();
+        return config == null ? null : config.getRenderBudget();
+    }
+
+    @Nullable
+    private FrameTemplates getFrameTemplates() {
+        NoiseLessConfig config = NoiseLessConfig.INSTANCE.getIfSpringEnvReady();
+        if (config == null || config.getTemplateCacheSize() <= 0) {
+            return null;
+        }
+        FrameTemplates templates = frameTemplates;
+        if (templates == null || templates.config != config) {
+            frameTemplates = templates = new FrameTemplates(config);
+        }
+        return templates;
+    }
+
+    /**
+     * 按 logger 名称和异常类型选择策略规则对应的谓词，没有匹配的规则时使用全局配置
+     */
+    @Override
+    protected boolean isShouldEnableIgnore(ILoggingEvent event, IThrowableProxy tp) {
+        return isShouldEnableIgnore(event.getLoggerName(), tp);
+    }
+
+    /**
+     * 没有事件时只按异常类型选择策略规则
+     */
     @Override
     protected boolean isShouldEnableIgnore(IThrowableProxy tp) {
+        return isShouldEnableIgnore((String) null, tp);
+    }
+
+    private boolean isShouldEnableIgnore(@Nullable String loggerName, IThrowableProxy tp) {
         if (FAILED_PREDICATE.get()) {
             return super.isShouldEnableIgnore(tp);
         }
         NoiseLessConfig config = NoiseLessConfig.INSTANCE.getIfSpringEnvReady();
-        StackLineSkipPredicate predicate;
-        if (config != null && (predicate = config.getPredicate()) != null) {
+        if (config != null && config.getPredicate() != null) {
             try {
-                return predicate.isShouldEnableSkip(tp);
+                return config.getPredicate(loggerName, tp).isShouldEnableSkip(tp);
             } catch (Exception e) {
-                if (FAILED_PREDICATE.compareAndSet(false, true)) {
-                    if (log.isDebugEnabled()) {
-                        System.err.println("堆栈行跳过谓词调用失败,已禁用,将使用原始配置,error: \n" + e);
-                        e.printStackTrace();
-                    } else {
-                        addWarn("堆栈行跳过谓词调用失败,已禁用,将使用原始配置");
-                        throw e;
-                    }
-                }
+                onPredicateFailed(e);
                 return super.isShouldEnableIgnore(tp);
             }
         }
         return super.isShouldEnableIgnore(tp);
     }
 
+    /**
+     * 每个异常只读取一次配置，缓存未命中的帧合并为一次谓词批量调用
+     */
+    @Override
+    protected BitSet classifyFrames(StackTraceElementProxy[] stepArray, int count) {
+        if (FAILED_PREDICATE.get()) {
+            return super.classifyFrames(stepArray, count);
+        }
+        NoiseLessConfig config = NoiseLessConfig.INSTANCE.getIfSpringEnvReady();
+        if (config != null && config.getPredicate() != null) {
+            try {
+                return config.classifyFrames(stepArray, count);
+            } catch (Exception e) {
+                onPredicateFailed(e);
+                return super.classifyFrames(stepArray, count);
+            }
+        }
+        return super.classifyFrames(stepArray, count);
+    }
+
+    @Override
+    protected boolean isIgnoredStackTraceLine(StackTraceElementProxy element) {
+        if (FAILED_PREDICATE.get()) {
+            return super.isIgnoredStackTraceLine(element);
+        }
+        NoiseLessConfig config = NoiseLessConfig.INSTANCE.getIfSpringEnvReady();
+        if (config != null && config.getPredicate() != null) {
+            try {
+                //按帧缓存判断结果，命中时既不需要生成堆栈行字符串，也不需要调用谓词
+                return config.isShouldSkipFrame(element);
+            } catch (Exception e) {
+                onPredicateFailed(e);
+                return super.isIgnoredStackTraceLine(element);
+            }
+        }
+        return super.isIgnoredStackTraceLine(element);
+    }
+
     @Override
     protected boolean isIgnoredStackTraceLine(String line) {
         if (FAILED_PREDICATE.get()) {
@@ -60,18 +355,80 @@ public class NoiseLessThrowableProxyConverter extends ExtensibleExtendedWhitespa
             try {
                 return predicate.isShouldSkipLine(line);
             } catch (Exception e) {
-                if (FAILED_PREDICATE.compareAndSet(false, true)) {
-                    if (log.isDebugEnabled()) {
-                        System.err.println("堆栈行跳过谓词调用失败,已禁用,将使用原始配置,error: \n" + e);
-                        e.printStackTrace();
-                    } else {
-                        addWarn("堆栈行跳过谓词调用失败,已禁用,将使用原始配置");
-                        throw e;
-                    }
-                }
+                onPredicateFailed(e);
                 return super.isIgnoredStackTraceLine(line);
             }
         }
         return super.isIgnoredStackTraceLine(line);
     }
-}
\ No newline at end of file
+
+    /**
+     * 谓词可能通过 {@link SneakyThrows} 抛出受检异常，同样禁用谓词
+     */
+    @SneakyThrows
+    private void onPredicateFailed(Exception e) {
+        NoiseLessMetrics.recordPredicateFailure();
+        if (FAILED_PREDICATE.compareAndSet(false, true)) {
+            if (log.isDebugEnabled()) {
+                System.err.println("堆栈行跳过谓词调用失败,已禁用,将使用原始配置,error: \n" + e);
+                e.printStackTrace();
+            } else {
+                addWarn("堆栈行跳过谓词调用失败,已禁用,将使用原始配置");
+                throw e;
+            }
+        }
+    }
+
+    private static final class FrameTemplates {
+        private final NoiseLessConfig config;
+        private final Cache<Long, FrameTemplate> cache;
+
+        private FrameTemplates(NoiseLessConfig config) {
+            this.config = config;
+            this.cache = Caffeine.newBuilder().maximumSize(config.getTemplateCacheSize()).build();
+        }
+    }
+
+    /**
+     * 保存每个节点的堆栈帧，指纹相同但堆栈帧不同时不使用模板
+     */
+    private static final class FrameTemplate {
+        private final String[] blocks;
+        private final StackTraceElement[][] frames;
+        private final int[] commonFrames;
+        private final int skippedFrames;
+        private final long skippedChars;
+
+        private FrameTemplate(String[] blocks, List<IThrowableProxy> nodes, int skippedFrames, long skippedChars) {
+            this.blocks = blocks;
+            this.frames = new StackTraceElement[nodes.size()][];
+            this.commonFrames = new int[nodes.size()];
+            for (int i = 0; i < frames.length; i++) {
+                StackTraceElementProxy[] stepArray = nodes.get(i).getStackTraceElementProxyArray();
+                frames[i] = new StackTraceElement[stepArray.length];
+                for (int j = 0; j < stepArray.length; j++) {
+                    frames[i][j] = stepArray[j].getStackTraceElement();
+                }
+                commonFrames[i] = nodes.get(i).getCommonFrames();
+            }
+            this.skippedFrames = skippedFrames;
+            this.skippedChars = skippedChars;
+        }
+
+        private boolean matches(int index, IThrowableProxy tp) {
+            StackTraceElementProxy[] stepArray = tp.getStackTraceElementProxyArray();
+            StackTraceElement[] expected = frames[index];
+            if (tp.getCommonFrames() != commonFrames[index] || stepArray.length != expected.length) {
+                return false;
+            }
+            for (int i = 0; i < expected.length; i++) {
+                StackTraceElement element = stepArray[i].getStackTraceElement();
+                //同一调用点的 StackTraceElement 通常不是同一对象，equals 比较各个字段
+                if (element != expected[i] && !expected[i].equals(element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
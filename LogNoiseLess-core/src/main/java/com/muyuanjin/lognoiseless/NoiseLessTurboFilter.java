@@ -0,0 +1,147 @@
+package com.muyuanjin.lognoiseless;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import com.muyuanjin.lognoiseless.internal.AbstractThrowableDuplicateFilter;
+import com.muyuanjin.lognoiseless.internal.NoiseLessConfig;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+import org.slf4j.helpers.MessageFormatter;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * 在日志事件创建之前按原始异常对象判断重复堆栈，与 {@link NoiseLessThrowableProxyConverter} 共享同一个重复堆栈过滤器，
+ * 超过周期内允许打印全栈数量的事件可以直接丢弃、降级为不带异常的事件或者打上标记，避免异常风暴时构建 ThrowableProxy 的开销
+ * <pre>{@code
+ * <turboFilter class="com.muyuanjin.lognoiseless.NoiseLessTurboFilter">
+ *     <action>downgrade</action>
+ *     <downgradeLevel>INFO</downgradeLevel>
+ * </turboFilter>
+ * }</pre>
+ * 需要配置 maxNumPerCycle 和 cycleDuration 启用重复堆栈过滤器，否则不做任何处理
+ * <p>
+ * 降级和标记后的事件直接交给 appender，不会再次经过 TurboFilter 链，输出前按新的级别和标记调用 {@link Logger#isEnabledFor(Marker, Level)}，
+ * 由其他 TurboFilter 和 logger 级别决定是否输出
+ *
+ * @author muyuanjin
+ */
+public class NoiseLessTurboFilter extends TurboFilter {
+    /**
+     * {@link Action#MARK} 时附加到事件上的标记
+     */
+    public static final Marker DUPLICATE_MARKER = MarkerFactory.getMarker("NOISELESS_DUPLICATE");
+    private static final String FQCN = Logger.class.getName();
+    private Action action = Action.DOWNGRADE;
+    private Level downgradeLevel = Level.INFO;
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+        if (!isStarted() || level == null || level.levelInt < logger.getEffectiveLevel().levelInt) {
+            return FilterReply.NEUTRAL;
+        }
+        boolean throwableInParams = false;
+        if (t == null && params != null && params.length > 0 && params[params.length - 1] instanceof Throwable) {
+            t = (Throwable) params[params.length - 1];
+            throwableInParams = true;
+        }
+        if (t == null || (marker != null && marker.contains(DUPLICATE_MARKER))) {
+            return FilterReply.NEUTRAL;
+        }
+        NoiseLessConfig config = NoiseLessConfig.INSTANCE.getIfSpringEnvReady();
+        StackLineSkipPredicate predicate = config == null || config.getPredicate() == null ? null : config.getPredicate(logger.getName(), t);
+        if (!(predicate instanceof AbstractThrowableDuplicateFilter)) {
+            return FilterReply.NEUTRAL;
+        }
+        try {
+            if (!((AbstractThrowableDuplicateFilter) predicate).isShouldEnableSkip(t)) {
+                return FilterReply.NEUTRAL;
+            }
+        } catch (RuntimeException e) {
+            addError("重复堆栈判断失败", e);
+            return FilterReply.NEUTRAL;
+        }
+        Object[] args = throwableInParams ? Arrays.copyOf(params, params.length - 1) : params;
+        return action.apply(this, marker, logger, level, format, args, t);
+    }
+
+    /**
+     * 超过周期内允许打印全栈数量后的处理方式，忽略大小写
+     */
+    public void setAction(String action) {
+        this.action = Action.valueOf(action.trim().toUpperCase(Locale.ROOT));
+    }
+
+    public String getAction() {
+        return action.name();
+    }
+
+    /**
+     * {@link Action#DOWNGRADE} 时使用的日志级别，默认为 INFO
+     */
+    public void setDowngradeLevel(String downgradeLevel) {
+        this.downgradeLevel = Level.toLevel(downgradeLevel, Level.INFO);
+    }
+
+    public String getDowngradeLevel() {
+        return downgradeLevel.levelStr;
+    }
+
+    /**
+     * 超过周期内允许打印全栈数量后的处理方式
+     */
+    public enum Action {
+        /**
+         * 直接丢弃
+         */
+        DROP {
+            @Override
+            FilterReply apply(NoiseLessTurboFilter filter, @Nullable Marker marker, Logger logger, Level level, String format, @Nullable Object[] args, Throwable t) {
+                return FilterReply.DENY;
+            }
+        },
+        /**
+         * 使用 downgradeLevel 重新输出不带异常的事件，异常只保留 toString 附加在消息末尾，不会构建 ThrowableProxy
+         */
+        DOWNGRADE {
+            @Override
+            FilterReply apply(NoiseLessTurboFilter filter, @Nullable Marker marker, Logger logger, Level level, String format, @Nullable Object[] args, Throwable t) {
+                Level downgradeLevel = filter.downgradeLevel.levelInt < level.levelInt ? filter.downgradeLevel : level;
+                if (logger.isEnabledFor(marker, downgradeLevel)) {
+                    String message = MessageFormatter.arrayFormat(format, args).getMessage() + " [stack trace suppressed: " + t + "]";
+                    LoggingEvent event = new LoggingEvent(FQCN, logger, downgradeLevel, message, null, null);
+                    event.setMarker(marker);
+                    logger.callAppenders(event);
+                }
+                return FilterReply.DENY;
+            }
+        },
+        /**
+         * 附加 {@link #DUPLICATE_MARKER} 标记后重新输出，可用于 appender 按标记过滤或分流，转换器会复用判断结果输出跳过后的堆栈
+         */
+        MARK {
+            @Override
+            FilterReply apply(NoiseLessTurboFilter filter, @Nullable Marker marker, Logger logger, Level level, String format, @Nullable Object[] args, Throwable t) {
+                Marker duplicate = DUPLICATE_MARKER;
+                if (marker != null) {
+                    duplicate = MarkerFactory.getDetachedMarker(DUPLICATE_MARKER.getName());
+                    duplicate.add(DUPLICATE_MARKER);
+                    duplicate.add(marker);
+                }
+                if (logger.isEnabledFor(duplicate, level)) {
+                    LoggingEvent event = new LoggingEvent(FQCN, logger, level, format, t, args);
+                    event.setMarker(duplicate);
+                    logger.callAppenders(event);
+                }
+                return FilterReply.DENY;
+            }
+        };
+
+        abstract FilterReply apply(NoiseLessTurboFilter filter, @Nullable Marker marker, Logger logger, Level level, String format, @Nullable Object[] args, Throwable t);
+    }
+}
@@ -1,8 +1,11 @@
 package com.muyuanjin.lognoiseless;
 
 import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
 import com.muyuanjin.lognoiseless.internal.InternalStackLinePredicate;
 
+import java.util.BitSet;
+
 /**
  * 堆栈行跳过谓词，用于判断是否应该跳过改行的堆栈打印
  */
@@ -20,4 +23,26 @@ public interface StackLineSkipPredicate extends InternalStackLinePredicate {
      */
     @Override
     boolean isShouldSkipLine(String line);
+
+    /**
+     * 该堆栈帧是否应该跳过，默认使用堆栈行字符串判断，实现类可覆写以直接使用堆栈帧的类名、方法名等字段
+     */
+    default boolean isShouldSkipFrame(StackTraceElementProxy frame) {
+        return isShouldSkipLine(frame.toString());
+    }
+
+    /**
+     * 批量判断前 count 个堆栈帧是否应该跳过，转换器每个异常通常只调用一次，实现类可覆写以在整个数组上批量处理
+     *
+     * @return 应该跳过的堆栈帧下标
+     */
+    default BitSet classifyFrames(StackTraceElementProxy[] frames, int count) {
+        BitSet skipped = new BitSet(count);
+        for (int i = 0; i < count; i++) {
+            if (isShouldSkipFrame(frames[i])) {
+                skipped.set(i);
+            }
+        }
+        return skipped;
+    }
 }
\ No newline at end of file
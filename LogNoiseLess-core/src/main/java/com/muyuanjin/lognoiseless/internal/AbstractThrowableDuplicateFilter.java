@@ -0,0 +1,177 @@
+package com.muyuanjin.lognoiseless.internal;
+
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.muyuanjin.lognoiseless.StackLineSkipPredicate;
+import com.muyuanjin.lognoiseless.util.LazyReference;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.util.Assert;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * 周期内重复堆栈压缩过滤器的基类，按堆栈指纹计数，超过周期内允许的数量后启用堆栈行跳过
+ *
+ * @author muyuanjin
+ */
+public abstract class AbstractThrowableDuplicateFilter implements StackLineSkipPredicate {
+    public static final long DEFAULT_MAX_MEMORY_BYTES = 4L * 1024 * 1024;
+    public static final int DEFAULT_FINGERPRINT_TOP_FRAMES = 8;
+    //因为日志文件会输出到控制台和文件内，会多次调用 isShouldEnableSkip 方法 ，缓存同一对象的判断结果，所有过滤器共用
+    private static final LazyReference<IdentityDecisionCache<IThrowableProxy>> RESULT_CACHE = new LazyReference<>(IdentityDecisionCache::new);
+    //TurboFilter 在事件创建前按原始异常对象判断，缓存结果供之后的转换器复用，避免同一事件计数两次
+    private static final LazyReference<IdentityDecisionCache<Throwable>> THROWABLE_RESULT_CACHE = new LazyReference<>(IdentityDecisionCache::new);
+    protected final StackLineSkipPredicate stackLineSkipPredicate;
+    @Nullable
+    private volatile SuppressionReporter suppressionReporter;
+    private volatile FingerprintStrategy fingerprintStrategy = FingerprintStrategy.ALL_FRAMES;
+    private volatile int fingerprintTopFrames = DEFAULT_FINGERPRINT_TOP_FRAMES;
+
+    /**
+     * @param stackLineSkipPredicate 周期内超过最大数量后的判断谓词
+     */
+    protected AbstractThrowableDuplicateFilter(StackLineSkipPredicate stackLineSkipPredicate) {
+        Assert.notNull(stackLineSkipPredicate, "stackLineSkipPredicate can not be null");
+        this.stackLineSkipPredicate = stackLineSkipPredicate;
+    }
+
+    @Override
+    public boolean isShouldEnableSkip(IThrowableProxy throwableProxy) {
+        //如果周期内未超过最大数量则直接判断为打印完整堆栈（return false）
+        return RESULT_CACHE.get().get(throwableProxy, this::check);
+    }
+
+    /**
+     * 按原始异常对象判断，与 {@link #isShouldEnableSkip(IThrowableProxy)} 共享计数，同一异常对象只计数一次
+     */
+    public boolean isShouldEnableSkip(Throwable throwable) {
+        return THROWABLE_RESULT_CACHE.get().get(throwable, this::checkThrowable);
+    }
+
+    private boolean check(IThrowableProxy throwableProxy) {
+        if (throwableProxy instanceof ThrowableProxy && THROWABLE_RESULT_CACHE.isInitialized()) {
+            Boolean decided = THROWABLE_RESULT_CACHE.get().getIfPresent(((ThrowableProxy) throwableProxy).getThrowable());
+            if (decided != null) {
+                return decided;
+            }
+        }
+        //每个异常只在这里计算一次指纹，之后的判断由结果缓存复用
+        long fingerprint = fingerprintStrategy.of(throwableProxy, fingerprintTopFrames);
+        StackTraceElementProxy[] frames = throwableProxy.getStackTraceElementProxyArray();
+        boolean full = isFull(fingerprint);
+        SuppressionReporter reporter = this.suppressionReporter;
+        if (full && reporter != null) {
+            reporter.record(fingerprint, throwableProxy.getClassName(), frames != null && frames.length > 0 ? frames[0].getStackTraceElement() : null);
+        }
+        return full;
+    }
+
+    private boolean checkThrowable(Throwable throwable) {
+        long fingerprint = fingerprintStrategy.of(throwable, fingerprintTopFrames);
+        boolean full = isFull(fingerprint);
+        SuppressionReporter reporter = this.suppressionReporter;
+        if (full && reporter != null) {
+            StackTraceElement[] frames = throwable.getStackTrace();
+            reporter.record(fingerprint, throwable.getClass().getName(), frames.length > 0 ? frames[0] : null);
+        }
+        return full;
+    }
+
+    /**
+     * 设置全栈被跳过次数的统计，为null时不统计
+     */
+    public void setSuppressionReporter(@Nullable SuppressionReporter suppressionReporter) {
+        this.suppressionReporter = suppressionReporter;
+    }
+
+    @Nullable
+    public SuppressionReporter getSuppressionReporter() {
+        return suppressionReporter;
+    }
+
+    /**
+     * 设置堆栈指纹的计算方式，已记录的堆栈按原方式计算，需要在使用前设置
+     *
+     * @param topFrames 只用于 {@link FingerprintStrategy#TOP_FRAMES}，每个异常参与计算的堆栈帧数
+     */
+    public void setFingerprintStrategy(FingerprintStrategy fingerprintStrategy, int topFrames) {
+        Assert.notNull(fingerprintStrategy, "fingerprintStrategy can not be null");
+        Assert.isTrue(topFrames > 0, "topFrames must be greater than 0");
+        this.fingerprintStrategy = fingerprintStrategy;
+        this.fingerprintTopFrames = topFrames;
+    }
+
+    public FingerprintStrategy getFingerprintStrategy() {
+        return fingerprintStrategy;
+    }
+
+    @Override
+    public boolean isShouldSkipLine(String line) {
+        return stackLineSkipPredicate.isShouldSkipLine(line);
+    }
+
+    @Override
+    public boolean isShouldSkipFrame(StackTraceElementProxy frame) {
+        return stackLineSkipPredicate.isShouldSkipFrame(frame);
+    }
+
+    @Override
+    public BitSet classifyFrames(StackTraceElementProxy[] frames, int count) {
+        return stackLineSkipPredicate.classifyFrames(frames, count);
+    }
+
+    /**
+     * 创建使用新判断谓词的过滤器，与当前过滤器共享计数状态，用于配置刷新时保留已记录的堆栈
+     */
+    public abstract AbstractThrowableDuplicateFilter withPredicate(StackLineSkipPredicate stackLineSkipPredicate);
+
+    /**
+     * 记录一次该指纹的出现，并判断周期内是否已超过允许打印全栈的最大数量
+     *
+     * @return true 表示已超过，应启用堆栈行跳过
+     */
+    protected abstract boolean isFull(long fingerprint);
+
+    /**
+     * 过滤器当前的填充率，0~1
+     */
+    public abstract double getFillRatio();
+
+    /**
+     * 按当前填充情况估算的误判率，即首次出现的堆栈被误判为重复的概率
+     */
+    public abstract double getFalsePositiveProbability();
+
+    /**
+     * 过滤器当前占用的内存（字节），不包括对象头等额外开销
+     */
+    public abstract long getMemoryBytes();
+
+    /**
+     * 将计数状态写入快照，用于重启后恢复，不支持时返回 false
+     */
+    protected boolean writeState(DataOutputStream out) throws IOException {
+        return false;
+    }
+
+    /**
+     * 从 {@link #writeState} 写入的快照中恢复计数状态，只在过滤器开始使用前调用，读取完整后才替换当前状态
+     *
+     * @return 快照与当前过滤器的参数不匹配时返回 false，当前状态不变
+     */
+    protected boolean readState(DataInputStream in) throws IOException {
+        return false;
+    }
+
+    /**
+     * 判断结果缓存的统计信息
+     */
+    public static CacheStats getResultCacheStats() {
+        return RESULT_CACHE.isInitialized() ? RESULT_CACHE.get().stats() : CacheStats.empty();
+    }
+}
@@ -1,84 +1,211 @@
 package com.muyuanjin.lognoiseless.internal;
 
-import ch.qos.logback.classic.spi.IThrowableProxy;
-import ch.qos.logback.classic.spi.StackTraceElementProxy;
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
-import com.google.common.hash.BloomFilter;
 import com.muyuanjin.lognoiseless.StackLineSkipPredicate;
-import com.muyuanjin.lognoiseless.util.LazyReference;
+import com.muyuanjin.lognoiseless.util.CoarseClock;
+import com.muyuanjin.lognoiseless.util.NoiseLessScheduler;
 import org.springframework.util.Assert;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.time.Duration;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
-@SuppressWarnings({"unused", "UnstableApiUsage"})
-public class BloomThrowableDuplicateFilter implements StackLineSkipPredicate {
-    //因为日志文件会输出到控制台和文件内，会多次调用 isShouldEnableSkip 方法 ，缓存同一对象的判断结果
-    private static final LazyReference<Cache<IThrowableProxy, Boolean>> RESULT_CACHE = new LazyReference<>(() -> Caffeine.newBuilder().weakKeys().build());
-    private final AutoRebuildBloomFilter<StackTraceElementProxy[]> autoRebuildBloomFilter;
-    private final StackLineSkipPredicate stackLineSkipPredicate;
+/**
+ * 每个周期只允许打印一次全栈的重复堆栈压缩过滤器，使用多代布隆过滤器轮换，而不是在周期结束时整体重置，
+ * 每个堆栈的过期时间取决于它被记录的时间，避免所有已知异常在同一时刻重新打印全栈
+ *
+ * @author muyuanjin
+ */
+@SuppressWarnings("unused")
+public class BloomThrowableDuplicateFilter extends AbstractThrowableDuplicateFilter {
+    public static final int DEFAULT_GENERATIONS = 4;
+    /**
+     * 每一代第一个分片的容量和误判率，之后按实际出现的不同堆栈数量自动扩容
+     */
+    private static final long INITIAL_CAPACITY = 1024;
+    private static final double INITIAL_FPP = 0.01;
+    private final AutoRebuildBloomFilter autoRebuildBloomFilter;
 
     /**
      * @param cycleDuration          周期长度，即重置计数器的间隔
      * @param stackLineSkipPredicate 周期内超过最大数量后的判断谓词
      */
     public BloomThrowableDuplicateFilter(Duration cycleDuration, StackLineSkipPredicate stackLineSkipPredicate) {
+        this(cycleDuration, DEFAULT_GENERATIONS, stackLineSkipPredicate);
+    }
+
+    /**
+     * @param cycleDuration          周期长度，打印过全栈的堆栈至少在一个周期内不会再次打印全栈
+     * @param generations            布隆过滤器的代数，越多过期时间越接近周期长度，每次轮换时过期的堆栈也越少，但每次判断需要查询的过滤器也越多
+     * @param stackLineSkipPredicate 周期内超过最大数量后的判断谓词
+     */
+    public BloomThrowableDuplicateFilter(Duration cycleDuration, int generations, StackLineSkipPredicate stackLineSkipPredicate) {
+        this(cycleDuration, generations, DEFAULT_MAX_MEMORY_BYTES, stackLineSkipPredicate);
+    }
+
+    /**
+     * @param cycleDuration          周期长度，打印过全栈的堆栈至少在一个周期内不会再次打印全栈
+     * @param generations            布隆过滤器的代数
+     * @param maxMemoryBytes         所有代占用内存的上限，达到上限后不再扩容，误判率会随之升高
+     * @param stackLineSkipPredicate 周期内超过最大数量后的判断谓词
+     */
+    public BloomThrowableDuplicateFilter(Duration cycleDuration, int generations, long maxMemoryBytes, StackLineSkipPredicate stackLineSkipPredicate) {
+        super(stackLineSkipPredicate);
         Assert.notNull(cycleDuration, "cycleDuration can not be null");
-        Assert.notNull(stackLineSkipPredicate, "stackLineSkipPredicate can not be null");
-        this.autoRebuildBloomFilter = new AutoRebuildBloomFilter<>(cycleDuration, () ->
-                BloomFilter.create(Funnels.DEFAULT, 3000 * Math.min(Math.max(1, Math.abs(cycleDuration.toHours())), 24)));
-        this.stackLineSkipPredicate = stackLineSkipPredicate;
+        Assert.isTrue(generations >= 2, "generations can not less than 2");
+        Assert.isTrue(maxMemoryBytes > 0, "maxMemoryBytes must be greater than 0");
+        long generationMaxMemory = maxMemoryBytes / generations;
+        this.autoRebuildBloomFilter = new AutoRebuildBloomFilter(cycleDuration, generations, generationMaxMemory, () ->
+                new ScalableBloomFilter(INITIAL_CAPACITY, INITIAL_FPP, generationMaxMemory));
+    }
+
+    private BloomThrowableDuplicateFilter(BloomThrowableDuplicateFilter source, StackLineSkipPredicate stackLineSkipPredicate) {
+        super(stackLineSkipPredicate);
+        this.autoRebuildBloomFilter = source.autoRebuildBloomFilter;
+    }
+
+    @Override
+    public BloomThrowableDuplicateFilter withPredicate(StackLineSkipPredicate stackLineSkipPredicate) {
+        return new BloomThrowableDuplicateFilter(this, stackLineSkipPredicate);
+    }
+
+    @Override
+    protected boolean isFull(long fingerprint) {
+        return autoRebuildBloomFilter.isFull(fingerprint);
+    }
+
+    /**
+     * 当前代的插入数与容量之比
+     */
+    @Override
+    public double getFillRatio() {
+        return autoRebuildBloomFilter.generations[0].getFillRatio();
     }
 
     @Override
-    public boolean isShouldEnableSkip(IThrowableProxy throwableProxy) {
-        //如果 mightContain false 则直接判断为打印完整堆栈（return false）
-        return Boolean.TRUE.equals(RESULT_CACHE.get().get(throwableProxy, k -> autoRebuildBloomFilter.isFull(k.getStackTraceElementProxyArray())));
+    public double getFalsePositiveProbability() {
+        return autoRebuildBloomFilter.getFalsePositiveProbability();
     }
 
     @Override
-    public boolean isShouldSkipLine(String line) {
-        return stackLineSkipPredicate.isShouldSkipLine(line);
+    public long getMemoryBytes() {
+        long bytes = 0;
+        for (ScalableBloomFilter generation : autoRebuildBloomFilter.generations) {
+            bytes += generation.getMemoryBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    protected boolean writeState(DataOutputStream out) throws IOException {
+        autoRebuildBloomFilter.writeTo(out);
+        return true;
+    }
+
+    @Override
+    protected boolean readState(DataInputStream in) throws IOException {
+        return autoRebuildBloomFilter.readFrom(in);
     }
 
-    @SuppressWarnings("UnstableApiUsage")
-    private static class AutoRebuildBloomFilter<T> {
+    /**
+     * 多代轮换的布隆过滤器，新记录只写入当前代，判断时查询所有代；后台线程每隔 周期/(代数-1) 轮换一次，丢弃最老的一代，
+     * 所以一个堆栈被记录后会在 [周期, 周期*代数/(代数-1)) 之后过期
+     */
+    private static class AutoRebuildBloomFilter {
+        private final Supplier<ScalableBloomFilter> supplier;
+        private final int maxGenerations;
+        private final long rotationInterval;
+        private final long generationMaxMemory;
         /**
-         * 重建间隔
+         * 下标 0 为当前代，越往后越老，整体替换保证轮换的原子性
          */
-        private final long rebuildingInterval;
+        private volatile ScalableBloomFilter[] generations;
         /**
-         * 上次重建的时间
+         * 上次轮换的时间，用于恢复快照时丢弃停机期间已过期的代
          */
-        private final AtomicLong lastRebuildingTime = new AtomicLong(System.currentTimeMillis());
-
-        private final Supplier<BloomFilter<T>> supplier;
-        private final AtomicReference<BloomFilter<T>> reference = new AtomicReference<>();
+        private volatile long lastRotationTime = CoarseClock.currentTimeMillis();
 
-        public AutoRebuildBloomFilter(Duration duration, Supplier<BloomFilter<T>> supplier) {
+        public AutoRebuildBloomFilter(Duration duration, int generations, long generationMaxMemory, Supplier<ScalableBloomFilter> supplier) {
             this.supplier = supplier;
-            this.reference.set(supplier.get());
-            this.rebuildingInterval = duration.toMillis();
+            this.maxGenerations = generations;
+            this.generationMaxMemory = generationMaxMemory;
+            this.generations = new ScalableBloomFilter[]{supplier.get()};
+            this.rotationInterval = Math.max(1, duration.toMillis() / (generations - 1));
+            //代数不足 generations 时只增加新的一代，之后每次轮换丢弃最老的一代
+            NoiseLessScheduler.scheduleAtFixedRate(this, AutoRebuildBloomFilter::rotate, rotationInterval, rotationInterval, TimeUnit.MILLISECONDS);
         }
 
-        public boolean isFull(T item) {
-            BloomFilter<T> bloomFilter = rebuildIfNecessary();
-            return !bloomFilter.put(item);
+        public boolean isFull(long item) {
+            ScalableBloomFilter[] generations = this.generations;
+            //更老的代中出现过的直接判断为已满，且不写入当前代，保证到期后能重新打印
+            for (int i = 1; i < generations.length; i++) {
+                if (generations[i].mightContain(item)) {
+                    return true;
+                }
+            }
+            return !generations[0].put(item);
         }
 
-        private BloomFilter<T> rebuildIfNecessary() {
-            long last = lastRebuildingTime.get();
-            long now = System.currentTimeMillis();
-            if (now - last < rebuildingInterval) {
-                return reference.get();
+        /**
+         * 判断时查询所有代，任意一代误判都会导致误判
+         */
+        public double getFalsePositiveProbability() {
+            double probability = 1;
+            for (ScalableBloomFilter generation : generations) {
+                probability *= 1 - generation.getFalsePositiveProbability();
+            }
+            return 1 - probability;
+        }
+
+        private void rotate() {
+            ScalableBloomFilter[] old = this.generations;
+            ScalableBloomFilter[] generations = new ScalableBloomFilter[Math.min(old.length + 1, maxGenerations)];
+            generations[0] = supplier.get();
+            System.arraycopy(old, 0, generations, 1, generations.length - 1);
+            this.generations = generations;
+            this.lastRotationTime = CoarseClock.currentTimeMillis();
+        }
+
+        private void writeTo(DataOutputStream out) throws IOException {
+            ScalableBloomFilter[] generations = this.generations;
+            out.writeLong(rotationInterval);
+            out.writeLong(lastRotationTime);
+            out.writeInt(generations.length);
+            for (ScalableBloomFilter generation : generations) {
+                generation.writeTo(out);
+            }
+        }
+
+        /**
+         * 按停机期间错过的轮换次数在前面补上空的代，超出代数的老代被丢弃
+         */
+        private boolean readFrom(DataInputStream in) throws IOException {
+            long interval = in.readLong();
+            long lastRotation = in.readLong();
+            int length = in.readInt();
+            if (interval != rotationInterval || length <= 0 || length > maxGenerations) {
+                return false;
+            }
+            ScalableBloomFilter[] saved = new ScalableBloomFilter[length];
+            for (int i = 0; i < length; i++) {
+                saved[i] = ScalableBloomFilter.readFrom(in, generationMaxMemory);
+            }
+            long missed = Math.max(0, (CoarseClock.currentTimeMillis() - lastRotation) / rotationInterval);
+            if (missed >= maxGenerations) {
+                //停机时间超过所有代的有效期，记录的堆栈都已过期
+                return true;
             }
-            if (lastRebuildingTime.compareAndSet(last, now)) {
-                this.reference.set(supplier.get());
+            int skipped = (int) missed;
+            ScalableBloomFilter[] generations = new ScalableBloomFilter[Math.min(maxGenerations, skipped + length)];
+            for (int i = 0; i < skipped; i++) {
+                generations[i] = supplier.get();
             }
-            return reference.get();
+            System.arraycopy(saved, 0, generations, skipped, generations.length - skipped);
+            this.generations = generations;
+            this.lastRotationTime = lastRotation + missed * rotationInterval;
+            return true;
         }
     }
-}
\ No newline at end of file
+}
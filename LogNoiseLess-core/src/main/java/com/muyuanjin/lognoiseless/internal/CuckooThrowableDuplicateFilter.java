@@ -1,13 +1,7 @@
 package com.muyuanjin.lognoiseless.internal;
 
-import ch.qos.logback.classic.spi.IThrowableProxy;
-import ch.qos.logback.classic.spi.StackTraceElementProxy;
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.mgunlogson.cuckoofilter4j.CuckooFilter;
-import com.github.mgunlogson.cuckoofilter4j.Utils;
 import com.muyuanjin.lognoiseless.StackLineSkipPredicate;
-import com.muyuanjin.lognoiseless.util.LazyReference;
+import com.muyuanjin.lognoiseless.util.CoarseClock;
 import org.springframework.util.Assert;
 
 import java.time.Duration;
@@ -21,12 +15,14 @@ import java.util.function.Supplier;
  *
  * @author muyuanjin
  */
-@SuppressWarnings({"unused", "UnstableApiUsage"})
-public class CuckooThrowableDuplicateFilter implements StackLineSkipPredicate {
-    //因为日志文件会输出到控制台和文件内，会多次调用 isShouldEnableSkip 方法 ，缓存同一对象的判断结果
-    private static final LazyReference<Cache<IThrowableProxy, Boolean>> RESULT_CACHE = new LazyReference<>(() -> Caffeine.newBuilder().weakKeys().build());
-    private final AutoRebuildCuckooFilter<StackTraceElementProxy[]> autoRebuildCuckooFilter;
-    private final StackLineSkipPredicate stackLineSkipPredicate;
+@SuppressWarnings("unused")
+public class CuckooThrowableDuplicateFilter extends AbstractThrowableDuplicateFilter {
+    /**
+     * 第一个分片的容量和误判率，之后按实际出现的不同堆栈数量自动扩容
+     */
+    private static final long INITIAL_CAPACITY = 1024;
+    private static final double INITIAL_FPP = 0.01;
+    private final AutoRebuildCuckooFilter autoRebuildCuckooFilter;
 
     /**
      * @param maxNumOfAllowedToPrintFullStackPerCycle 允许一个周期内打印全栈的最大数量
@@ -34,28 +30,56 @@ public class CuckooThrowableDuplicateFilter implements StackLineSkipPredicate {
      * @param stackLineSkipPredicate                  周期内超过最大数量后的判断谓词
      */
     public CuckooThrowableDuplicateFilter(int maxNumOfAllowedToPrintFullStackPerCycle, Duration cycleDuration, StackLineSkipPredicate stackLineSkipPredicate) {
+        this(maxNumOfAllowedToPrintFullStackPerCycle, cycleDuration, DEFAULT_MAX_MEMORY_BYTES, stackLineSkipPredicate);
+    }
+
+    /**
+     * @param maxNumOfAllowedToPrintFullStackPerCycle 允许一个周期内打印全栈的最大数量
+     * @param cycleDuration                           周期长度，即重置计数器的间隔
+     * @param maxMemoryBytes                          过滤器占用内存的上限，达到上限后无法记录的堆栈总是打印全栈，而不会被误跳过
+     * @param stackLineSkipPredicate                  周期内超过最大数量后的判断谓词
+     */
+    public CuckooThrowableDuplicateFilter(int maxNumOfAllowedToPrintFullStackPerCycle, Duration cycleDuration, long maxMemoryBytes, StackLineSkipPredicate stackLineSkipPredicate) {
+        super(stackLineSkipPredicate);
         Assert.isTrue(maxNumOfAllowedToPrintFullStackPerCycle > 0 && maxNumOfAllowedToPrintFullStackPerCycle < cycleDuration.toMillis(),
                 "maxNumOfAllowedToPrintFullStackPerCycle can not less than 0 or bigger than cycleDuration millis");
         Assert.notNull(cycleDuration, "cycleDuration can not be null");
-        Assert.notNull(stackLineSkipPredicate, "stackLineSkipPredicate can not be null");
-        this.autoRebuildCuckooFilter = new AutoRebuildCuckooFilter<>(maxNumOfAllowedToPrintFullStackPerCycle, cycleDuration, () ->
-                new CuckooFilter.Builder<>(Funnels.DEFAULT, 3000 * Math.min(Math.max(1, Math.abs(cycleDuration.toHours())), 24))
-                        .withFalsePositiveRate(0.01).withHashAlgorithm(Utils.Algorithm.Murmur3_32).build());
-        this.stackLineSkipPredicate = stackLineSkipPredicate;
+        Assert.isTrue(maxMemoryBytes > 0, "maxMemoryBytes must be greater than 0");
+        this.autoRebuildCuckooFilter = new AutoRebuildCuckooFilter(maxNumOfAllowedToPrintFullStackPerCycle, cycleDuration, () ->
+                new ScalableCuckooFilter(INITIAL_CAPACITY, INITIAL_FPP, maxMemoryBytes));
+    }
+
+    private CuckooThrowableDuplicateFilter(CuckooThrowableDuplicateFilter source, StackLineSkipPredicate stackLineSkipPredicate) {
+        super(stackLineSkipPredicate);
+        this.autoRebuildCuckooFilter = source.autoRebuildCuckooFilter;
+    }
+
+    @Override
+    public CuckooThrowableDuplicateFilter withPredicate(StackLineSkipPredicate stackLineSkipPredicate) {
+        return new CuckooThrowableDuplicateFilter(this, stackLineSkipPredicate);
+    }
+
+    @Override
+    protected boolean isFull(long fingerprint) {
+        return autoRebuildCuckooFilter.isFull(fingerprint);
+    }
+
+    @Override
+    public double getFillRatio() {
+        return autoRebuildCuckooFilter.reference.get().getFillRatio();
     }
 
     @Override
-    public boolean isShouldEnableSkip(IThrowableProxy throwableProxy) {
-        //如果 mightContain false 则直接判断为打印完整堆栈（return false）
-        return Boolean.TRUE.equals(RESULT_CACHE.get().get(throwableProxy, k -> autoRebuildCuckooFilter.isFull(k.getStackTraceElementProxyArray())));
+    public double getFalsePositiveProbability() {
+        return autoRebuildCuckooFilter.reference.get().getFalsePositiveProbability();
     }
 
     @Override
-    public boolean isShouldSkipLine(String line) {
-        return stackLineSkipPredicate.isShouldSkipLine(line);
+    public long getMemoryBytes() {
+        return autoRebuildCuckooFilter.reference.get().getMemoryBytes();
     }
 
-    private static class AutoRebuildCuckooFilter<T> {
+    private static class AutoRebuildCuckooFilter {
         private static final int CUCKOO_MAX_COUNT = 7;
         /**
          * 一个周期内最大重建数
@@ -76,12 +100,12 @@ public class CuckooThrowableDuplicateFilter implements StackLineSkipPredicate {
         /**
          * 上次重建的时间
          */
-        private final AtomicLong lastRebuildingTime = new AtomicLong(System.currentTimeMillis());
+        private final AtomicLong lastRebuildingTime = new AtomicLong(CoarseClock.currentTimeMillis());
 
-        private final Supplier<CuckooFilter<T>> supplier;
-        private final AtomicReference<CuckooFilter<T>> reference = new AtomicReference<>();
+        private final Supplier<ScalableCuckooFilter> supplier;
+        private final AtomicReference<ScalableCuckooFilter> reference = new AtomicReference<>();
 
-        public AutoRebuildCuckooFilter(int tokens, Duration duration, Supplier<CuckooFilter<T>> supplier) {
+        public AutoRebuildCuckooFilter(int tokens, Duration duration, Supplier<ScalableCuckooFilter> supplier) {
             this.supplier = supplier;
             this.reference.set(supplier.get());
             this.lastBuildMaxCount = tokens % CUCKOO_MAX_COUNT;
@@ -93,8 +117,8 @@ public class CuckooThrowableDuplicateFilter implements StackLineSkipPredicate {
             this.rebuildingInterval = duration.toMillis() / this.maxRebuildingNum;
         }
 
-        public boolean isFull(T item) {
-            CuckooFilter<T> cuckooFilter = rebuildIfNecessary();
+        public boolean isFull(long item) {
+            ScalableCuckooFilter cuckooFilter = rebuildIfNecessary();
             int times = CUCKOO_MAX_COUNT;
             if (currentRebuildingNum.get() == maxRebuildingNum) {
                 times = lastBuildMaxCount;
@@ -102,12 +126,14 @@ public class CuckooThrowableDuplicateFilter implements StackLineSkipPredicate {
             if (cuckooFilter.approximateCount(item) >= times) {
                 return true;
             }
-            return !cuckooFilter.put(item);
+            //达到内存上限写入失败时不跳过，宁可多打印也不误跳过首次出现的堆栈
+            cuckooFilter.put(item);
+            return false;
         }
 
-        private CuckooFilter<T> rebuildIfNecessary() {
+        private ScalableCuckooFilter rebuildIfNecessary() {
             long last = lastRebuildingTime.get();
-            long now = System.currentTimeMillis();
+            long now = CoarseClock.currentTimeMillis();
             if (now - last < rebuildingInterval) {
                 return reference.get();
             }
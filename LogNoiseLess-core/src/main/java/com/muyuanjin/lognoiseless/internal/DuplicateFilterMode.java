@@ -0,0 +1,82 @@
+package com.muyuanjin.lognoiseless.internal;
+
+import com.muyuanjin.lognoiseless.StackLineSkipPredicate;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * 周期内重复堆栈压缩过滤器的实现方式
+ *
+ * @author muyuanjin
+ */
+public enum DuplicateFilterMode {
+    /**
+     * 默认，周期内最大数量为1时使用布隆过滤器，否则使用布谷鸟过滤器；布谷鸟过滤器不支持快照，配置了快照文件时改用 {@link #SHARDED}
+     */
+    AUTO {
+        @Override
+        public AbstractThrowableDuplicateFilter create(DuplicateFilterSettings settings, StackLineSkipPredicate predicate) {
+            if (settings.getMaxNumPerCycle() == 1) {
+                return BLOOM.create(settings, predicate);
+            }
+            return settings.isSnapshotEnabled() ? SHARDED.create(settings, predicate) : CUCKOO.create(settings, predicate);
+        }
+    },
+    /**
+     * 多代轮换的布隆过滤器，每个周期只允许打印一次全栈
+     */
+    BLOOM {
+        @Override
+        public AbstractThrowableDuplicateFilter create(DuplicateFilterSettings settings, StackLineSkipPredicate predicate) {
+            return new BloomThrowableDuplicateFilter(settings.getCycleDuration(), settings.getBloomGenerations(), settings.getMaxMemoryBytes(), predicate);
+        }
+    },
+    /**
+     * 布谷鸟过滤器，由于最大计数上限为7，周期内最大数量超过7时会分隔至多个子周期，计数并不严格，不支持快照
+     */
+    CUCKOO {
+        @Override
+        public AbstractThrowableDuplicateFilter create(DuplicateFilterSettings settings, StackLineSkipPredicate predicate) {
+            return new CuckooThrowableDuplicateFilter(settings.getMaxNumPerCycle(), settings.getCycleDuration(), settings.getMaxMemoryBytes(), predicate);
+        }
+    },
+    /**
+     * 精确的滑动窗口计数，任意一个周期时长的窗口内打印全栈的次数都不会超过最大数量，首次出现的堆栈一定会打印全栈
+     */
+    SLIDING_WINDOW {
+        @Override
+        public AbstractThrowableDuplicateFilter create(DuplicateFilterSettings settings, StackLineSkipPredicate predicate) {
+            return new SlidingWindowThrowableDuplicateFilter(settings.getMaxNumPerCycle(), settings.getCycleDuration(), settings.getMaxMemoryBytes(), predicate);
+        }
+    },
+    /**
+     * 按指纹分片的无锁计数，判断和计数只需一次 CAS，没有所有线程共享的原子变量，适合核数很多、异常集中爆发的场景
+     */
+    SHARDED {
+        @Override
+        public AbstractThrowableDuplicateFilter create(DuplicateFilterSettings settings, StackLineSkipPredicate predicate) {
+            return new ShardedThrowableDuplicateFilter(settings.getMaxNumPerCycle(), settings.getCycleDuration(), settings.getMaxMemoryBytes(), predicate);
+        }
+    },
+    /**
+     * 同一台机器上的多个进程通过内存映射文件共享计数，文件大小为最大内存，无法映射文件或文件由不同配置的进程创建时退回 {@link #AUTO}
+     */
+    SHARED_MMAP {
+        @Override
+        public AbstractThrowableDuplicateFilter create(DuplicateFilterSettings settings, StackLineSkipPredicate predicate) {
+            String path = settings.getSharedFilePath();
+            try {
+                Assert.hasText(path, "sharedFilePath can not be empty");
+                return new SharedMappedThrowableDuplicateFilter(Paths.get(path), settings.getMaxNumPerCycle(), settings.getCycleDuration(), settings.getMaxMemoryBytes(),
+                        settings.getFingerprintStrategy(), settings.getFingerprintTopFrames(), predicate);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("共享重复堆栈过滤器文件:" + path + " 映射失败,将使用进程内的过滤器, error:" + e);
+                return AUTO.create(settings, predicate);
+            }
+        }
+    };
+
+    public abstract AbstractThrowableDuplicateFilter create(DuplicateFilterSettings settings, StackLineSkipPredicate predicate);
+}
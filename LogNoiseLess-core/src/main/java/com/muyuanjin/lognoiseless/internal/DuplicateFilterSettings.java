@@ -0,0 +1,48 @@
+package com.muyuanjin.lognoiseless.internal;
+
+import lombok.Data;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+
+/**
+ * 重复堆栈过滤器配置
+ *
+ * @author muyuanjin
+ */
+@Data
+public class DuplicateFilterSettings {
+    /**
+     * 每个周期允许打印全栈的最大数量
+     */
+    private final int maxNumPerCycle;
+    /**
+     * 周期时长
+     */
+    private final Duration cycleDuration;
+    /**
+     * 过滤器允许使用的最大内存（字节）
+     */
+    private final long maxMemoryBytes;
+    /**
+     * 布隆过滤器轮换的代数
+     */
+    private final int bloomGenerations;
+    /**
+     * 多个进程共享的映射文件路径，只用于 {@link DuplicateFilterMode#SHARED_MMAP}
+     */
+    @Nullable
+    private final String sharedFilePath;
+    /**
+     * 堆栈指纹的计算方式
+     */
+    private final FingerprintStrategy fingerprintStrategy;
+    /**
+     * {@link FingerprintStrategy#TOP_FRAMES} 下每个异常参与计算的堆栈帧数
+     */
+    private final int fingerprintTopFrames;
+    /**
+     * 是否配置了快照文件，{@link DuplicateFilterMode#AUTO} 据此选择支持快照的实现
+     */
+    private final boolean snapshotEnabled;
+}
@@ -0,0 +1,288 @@
+package com.muyuanjin.lognoiseless.internal;
+
+import com.muyuanjin.lognoiseless.StackLineSkipPredicate;
+import com.muyuanjin.lognoiseless.util.CoarseClock;
+import com.muyuanjin.lognoiseless.util.NoiseLessScheduler;
+import org.springframework.util.Assert;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * 重复堆栈过滤器状态的快照文件，定期和 JVM 退出时保存，启动时恢复配置未变化的过滤器，重启后已打印过全栈的堆栈不会立刻再次打印全栈
+ * <p>
+ * 文件格式（大端序）：魔数 8 字节、版本 4 字节、保存时间 8 字节、分段数 4 字节，之后每个分段为
+ * 签名、过滤器类名（均为 4 字节长度加 UTF-8 字节）、数据长度 4 字节、数据、数据的 CRC32 4 字节。
+ * 签名包含过滤器的实现方式和全部配置，配置变化、类名不同或校验失败的分段被忽略；先写入临时文件再整体替换，写到一半时崩溃不会损坏原快照。
+ * 定时保存在单独的 I/O 线程上执行
+ * <p>
+ * {@link DuplicateFilterMode#SHARED_MMAP} 的计数本身就保存在文件中，不写入快照；{@link DuplicateFilterMode#CUCKOO} 无法以稳定的格式保存，不支持快照，
+ * 配置了快照文件时 {@link DuplicateFilterMode#AUTO} 改用 {@link DuplicateFilterMode#SHARDED}
+ *
+ * @author muyuanjin
+ */
+public final class DuplicateFilterSnapshot {
+    /**
+     * "LNLSSNP1"
+     */
+    private static final long MAGIC = 0x4C4E4C53534E5031L;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 24;
+    private static final int MAX_FILE_BYTES = Integer.MAX_VALUE - 8;
+    private static final String GLOBAL_SIGNATURE = "global:";
+    private static final String RULE_SIGNATURE = "rule:";
+    private static final AtomicBoolean SHUTDOWN_HOOK_REGISTERED = new AtomicBoolean();
+    private final Path path;
+    private final Duration interval;
+    /**
+     * 上次保存失败，避免每次定时保存都输出同样的错误
+     */
+    private volatile boolean failed;
+
+    /**
+     * @param path     快照文件路径
+     * @param interval 定时保存的间隔，不大于0时只在 JVM 退出时保存
+     */
+    public DuplicateFilterSnapshot(Path path, Duration interval) {
+        Assert.notNull(path, "path can not be null");
+        Assert.notNull(interval, "interval can not be null");
+        this.path = path;
+        this.interval = interval;
+        if (!interval.isNegative() && !interval.isZero()) {
+            NoiseLessScheduler.scheduleIoAtFixedRate(this, DuplicateFilterSnapshot::saveCurrent, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        if (SHUTDOWN_HOOK_REGISTERED.compareAndSet(false, true)) {
+            Runtime.getRuntime().addShutdownHook(new Thread(DuplicateFilterSnapshot::saveOnShutdown, "LogNoiseLess-snapshot"));
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public Duration getInterval() {
+        return interval;
+    }
+
+    /**
+     * 保存配置中所有支持快照的过滤器
+     *
+     * @return 写入的过滤器数量
+     */
+    public synchronized int save(NoiseLessConfig config) throws IOException {
+        List<String> signatures = new ArrayList<>();
+        List<String> types = new ArrayList<>();
+        List<byte[]> payloads = new ArrayList<>();
+        for (Map.Entry<String, AbstractThrowableDuplicateFilter> entry : getFilters(config).entrySet()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            if (entry.getValue().writeState(out)) {
+                out.flush();
+                signatures.add(entry.getKey());
+                types.add(entry.getValue().getClass().getName());
+                payloads.add(bytes.toByteArray());
+            }
+        }
+        ByteBuffer[] buffers = new ByteBuffer[payloads.size() * 3 + 1];
+        buffers[0] = ByteBuffer.allocate(HEADER_BYTES).putLong(MAGIC).putInt(VERSION).putLong(CoarseClock.currentTimeMillis()).putInt(payloads.size());
+        buffers[0].flip();
+        for (int i = 0; i < payloads.size(); i++) {
+            byte[] signature = signatures.get(i).getBytes(StandardCharsets.UTF_8);
+            byte[] type = types.get(i).getBytes(StandardCharsets.UTF_8);
+            byte[] payload = payloads.get(i);
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, payload.length);
+            buffers[i * 3 + 1] = (ByteBuffer) ByteBuffer.allocate(12 + signature.length + type.length)
+                    .putInt(signature.length).put(signature).putInt(type.length).put(type).putInt(payload.length).flip();
+            buffers[i * 3 + 2] = ByteBuffer.wrap(payload);
+            buffers[i * 3 + 3] = (ByteBuffer) ByteBuffer.allocate(4).putInt((int) crc.getValue()).flip();
+        }
+        Path absolute = path.toAbsolutePath();
+        if (absolute.getParent() != null) {
+            Files.createDirectories(absolute.getParent());
+        }
+        Path temp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long remaining = 0;
+            for (ByteBuffer buffer : buffers) {
+                remaining += buffer.remaining();
+            }
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return payloads.size();
+    }
+
+    /**
+     * 从快照文件恢复配置中签名和类名都相同的过滤器，只应在过滤器开始使用前调用，文件不存在或无法识别时不做任何事
+     *
+     * @return 恢复的过滤器数量
+     */
+    public int restore(NoiseLessConfig config) throws IOException {
+        Map<String, Section> sections = read(path);
+        int restored = 0;
+        for (Map.Entry<String, AbstractThrowableDuplicateFilter> entry : getFilters(config).entrySet()) {
+            Section section = sections.get(entry.getKey());
+            AbstractThrowableDuplicateFilter filter = entry.getValue();
+            if (section == null || !section.type.equals(filter.getClass().getName())) {
+                continue;
+            }
+            try {
+                if (filter.readState(new DataInputStream(new ByteArrayInputStream(section.payload)))) {
+                    restored++;
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("重复堆栈过滤器快照:" + path + " 中的 " + entry.getKey() + " 恢复失败, error:" + e);
+            }
+        }
+        return restored;
+    }
+
+    /**
+     * 保存当前配置，当前配置已使用其他快照时不做任何事
+     */
+    private void saveCurrent() {
+        NoiseLessConfig config = NoiseLessConfig.INSTANCE.isInitialized() ? NoiseLessConfig.INSTANCE.get() : null;
+        if (config != null && config.getFilterSnapshot() == this) {
+            saveQuietly(config);
+        }
+    }
+
+    private void saveQuietly(NoiseLessConfig config) {
+        try {
+            save(config);
+            failed = false;
+        } catch (IOException | RuntimeException e) {
+            if (!failed) {
+                failed = true;
+                System.err.println("重复堆栈过滤器快照:" + path + " 保存失败, error:" + e);
+            }
+        }
+    }
+
+    private static void saveOnShutdown() {
+        NoiseLessConfig config = NoiseLessConfig.INSTANCE.isInitialized() ? NoiseLessConfig.INSTANCE.get() : null;
+        DuplicateFilterSnapshot snapshot = config == null ? null : config.getFilterSnapshot();
+        if (snapshot != null) {
+            snapshot.saveQuietly(config);
+        }
+    }
+
+    /**
+     * 全局过滤器和各规则的过滤器按签名排列，相同的规则只有第一条会被匹配，所以签名相同时只保留第一条
+     */
+    private static Map<String, AbstractThrowableDuplicateFilter> getFilters(NoiseLessConfig config) {
+        Map<String, AbstractThrowableDuplicateFilter> filters = new LinkedHashMap<>();
+        if (config.getPredicate() instanceof AbstractThrowableDuplicateFilter) {
+            filters.put(GLOBAL_SIGNATURE + config.getDuplicateFilterMode() + ":" + config.getDuplicateFilterSettings(),
+                    (AbstractThrowableDuplicateFilter) config.getPredicate());
+        }
+        NoisePolicyTable policyTable = config.getPolicyTable();
+        if (policyTable != null) {
+            List<NoisePolicyRule> rules = policyTable.getRules();
+            List<StackLineSkipPredicate> predicates = policyTable.getPredicates();
+            for (int i = 0; i < rules.size(); i++) {
+                if (predicates.get(i) instanceof AbstractThrowableDuplicateFilter) {
+                    filters.putIfAbsent(RULE_SIGNATURE + rules.get(i), (AbstractThrowableDuplicateFilter) predicates.get(i));
+                }
+            }
+        }
+        return filters;
+    }
+
+    /**
+     * 读取所有校验通过的分段，文件不存在或头部无法识别时返回空表，分段不完整时忽略它及之后的分段
+     */
+    private static Map<String, Section> read(Path path) throws IOException {
+        Map<String, Section> sections = new HashMap<>();
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > MAX_FILE_BYTES) {
+                return sections;
+            }
+            buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                //读取到文件末尾
+            }
+            buffer.flip();
+        } catch (NoSuchFileException e) {
+            return sections;
+        }
+        if (buffer.remaining() < HEADER_BYTES || buffer.getLong() != MAGIC || buffer.getInt() != VERSION) {
+            return sections;
+        }
+        //保存时间，目前只用于排查问题
+        buffer.getLong();
+        int count = buffer.getInt();
+        try {
+            for (int i = 0; i < count; i++) {
+                String signature = readString(buffer);
+                String type = readString(buffer);
+                int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining() - 4) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                buffer.get(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload, 0, length);
+                if (buffer.getInt() == (int) crc.getValue()) {
+                    sections.putIfAbsent(signature, new Section(type, payload));
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            //文件被截断，保留已读取的分段
+        }
+        return sections;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Section {
+        private final String type;
+        private final byte[] payload;
+
+        private Section(String type, byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+}
@@ -15,6 +15,8 @@ import ch.qos.logback.core.status.ErrorStatus;
 import org.springframework.boot.logging.logback.ExtendedWhitespaceThrowableProxyConverter;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
 
@@ -26,10 +28,34 @@ import java.util.Map;
  * @see ThrowableProxyConverter
  */
 public class ExtensibleExtendedWhitespaceThrowableProxyConverter extends ThrowableHandlingConverter {
+    /**
+     * @deprecated 渲染缓冲区改由 {@link RenderBuffers} 按近期平均长度分配并复用，不再使用此值
+     */
+    @Deprecated
     protected static final int BUILDER_CAPACITY = 2048;
+    /**
+     * 折叠检测的最大片段长度，保证检测为线性时间
+     */
+    private static final int MAX_FOLD_PERIOD = 64;
+    /**
+     * 限制打印行数时，被跳过的帧使打印范围后移，每次至少追加判断的堆栈帧数量
+     */
+    private static final int CLASSIFY_CHUNK = 32;
+    /**
+     * 当前线程正在进行的渲染中被跳过和折叠的堆栈帧数量及其估算的字符数，同一转换器可能被多个线程同时使用
+     */
+    private static final ThreadLocal<long[]> SKIPPED_FRAMES = ThreadLocal.withInitial(() -> new long[2]);
+    /**
+     * 当前线程正在转换的事件，不带事件参数的 {@link #throwableProxyToString(IThrowableProxy)} 通过它判断是否启用堆栈行跳过
+     */
+    private static final ThreadLocal<ILoggingEvent> CONVERTING_EVENT = new ThreadLocal<>();
     protected int lengthOption;
     protected List<EventEvaluator<ILoggingEvent>> evaluatorList = null;
     protected List<String> ignoredStackTraceLines = null;
+    /**
+     * 影响渲染结果的转换器选项，用作渲染结果缓存的键
+     */
+    protected String renderKey;
 
     protected int errorCount = 0;
 
@@ -73,6 +99,7 @@ public class ExtensibleExtendedWhitespaceThrowableProxyConverter extends Throwab
                 }
             }
         }
+        renderKey = (getClass().getName() + '|' + lengthOption + '|' + ignoredStackTraceLines).intern();
         super.start();
     }
 
@@ -106,10 +133,23 @@ public class ExtensibleExtendedWhitespaceThrowableProxyConverter extends Throwab
     public String convert(ILoggingEvent event) {
 
         IThrowableProxy tp = event.getThrowableProxy();
-        if (tp == null) {
+        if (tp == null || !isPrintStack(event)) {
             return CoreConstants.EMPTY_STRING;
         }
+        return throwableProxyToString(event, tp);
+    }
+
+    /**
+     * 直接渲染到调用方提供的 StringBuilder 中，结果与 {@link #convert} 一致，省去中间字符串
+     */
+    public void appendTo(StringBuilder out, ILoggingEvent event) {
+        IThrowableProxy tp = event.getThrowableProxy();
+        if (tp != null && isPrintStack(event)) {
+            appendThrowableProxy(out, event, tp);
+        }
+    }
 
+    private boolean isPrintStack(ILoggingEvent event) {
         // an evaluator match will cause stack printing to be skipped
         if (evaluatorList != null) {
             boolean printStack = true;
@@ -132,22 +172,168 @@ public class ExtensibleExtendedWhitespaceThrowableProxyConverter extends Throwab
                 }
             }
 
-            if (!printStack) {
-                return CoreConstants.EMPTY_STRING;
-            }
+            return printStack;
+        }
+        return true;
+    }
+
+    /**
+     * 启用渲染结果缓存时先查找缓存，未命中时委托给 {@link #throwableProxyToString(IThrowableProxy)}
+     */
+    protected String throwableProxyToString(ILoggingEvent event, IThrowableProxy tp) {
+        if (!isRenderCacheEnabled()) {
+            return renderForEvent(event, tp);
+        }
+        String rendered = RenderedThrowableCache.get(tp, renderKey);
+        if (rendered == null) {
+            rendered = renderForEvent(event, tp);
+            RenderedThrowableCache.put(tp, renderKey, rendered);
         }
+        return rendered;
+    }
 
-        return throwableProxyToString(tp);
+    private String renderForEvent(ILoggingEvent event, IThrowableProxy tp) {
+        CONVERTING_EVENT.set(event);
+        try {
+            return throwableProxyToString(tp);
+        } finally {
+            CONVERTING_EVENT.remove();
+        }
+    }
+
+    protected String throwableProxyToString(IThrowableProxy tp) {
+        ILoggingEvent event = CONVERTING_EVENT.get();
+        return renderThrowableProxy(tp, event == null ? isShouldEnableIgnore(tp) : isShouldEnableIgnore(event, tp));
+    }
+
+    protected void appendThrowableProxy(StringBuilder out, ILoggingEvent event, IThrowableProxy tp) {
+        if (!isRenderCacheEnabled()) {
+            renderThrowableProxy(out, tp, isShouldEnableIgnore(event, tp));
+            return;
+        }
+        String rendered = RenderedThrowableCache.get(tp, renderKey);
+        if (rendered == null) {
+            int start = out.length();
+            renderThrowableProxy(out, tp, isShouldEnableIgnore(event, tp));
+            RenderedThrowableCache.put(tp, renderKey, out.substring(start));
+        } else {
+            out.append(rendered);
+        }
+    }
+
+    /**
+     * 是否在多个 appender 间共享同一异常的渲染结果
+     */
+    protected boolean isRenderCacheEnabled() {
+        return false;
     }
 
     /**
      * @see ExtendedWhitespaceThrowableProxyConverter
      */
-    protected String throwableProxyToString(IThrowableProxy tp) {
-        StringBuilder sb = new StringBuilder(BUILDER_CAPACITY);
+    protected String renderThrowableProxy(IThrowableProxy tp, boolean shouldEnableIgnore) {
+        StringBuilder sb = RenderBuffers.acquire();
+        try {
+            renderThrowableProxy(sb, tp, shouldEnableIgnore);
+            return sb.toString();
+        } finally {
+            RenderBuffers.release(sb);
+        }
+    }
+
+    /**
+     * 追加到 sb 末尾
+     */
+    protected void renderThrowableProxy(StringBuilder sb, IThrowableProxy tp, boolean shouldEnableIgnore) {
+        renderAndCount(sb, tp, shouldEnableIgnore);
+    }
+
+    /**
+     * 渲染并调用 {@link #onRendered}
+     *
+     * @return 被跳过和折叠的堆栈帧估算的字符数
+     */
+    protected final long renderAndCount(StringBuilder sb, IThrowableProxy tp, boolean shouldEnableIgnore) {
+        int start = sb.length();
+        takeSkippedFrames();
+        takeSkippedChars();
+        sb.append(CoreConstants.LINE_SEPARATOR);
+        recursiveAppend(sb, null, ThrowableProxyUtil.REGULAR_EXCEPTION_INDENT, shouldEnableIgnore, tp);
         sb.append(CoreConstants.LINE_SEPARATOR);
-        recursiveAppend(sb, null, ThrowableProxyUtil.REGULAR_EXCEPTION_INDENT, isShouldEnableIgnore(tp), tp);
-        return sb.append(CoreConstants.LINE_SEPARATOR).toString();
+        long skippedChars = takeSkippedChars();
+        onRendered(tp, shouldEnableIgnore, takeSkippedFrames(), sb.length() - start, skippedChars);
+        return skippedChars;
+    }
+
+    /**
+     * 每次实际渲染完成后调用，可用于统计
+     *
+     * @param skippedFrames 被跳过的堆栈帧数量
+     * @param renderedChars 渲染结果的字符数
+     * @param skippedChars  被跳过和折叠的堆栈帧按完整格式估算的字符数，已扣除跳过标记的长度
+     */
+    protected void onRendered(IThrowableProxy tp, boolean shouldEnableIgnore, int skippedFrames, int renderedChars, long skippedChars) {
+    }
+
+    /**
+     * 累加当前线程本次渲染中被跳过的堆栈帧数量，覆写 {@link #subjoinSTEPArray} 的子类可调用以保持统计准确
+     */
+    protected static void addSkippedFrames(int count) {
+        addSkippedFrames(count, 0);
+    }
+
+    /**
+     * @param chars 被跳过的堆栈帧按完整格式估算的字符数，减去代替它们输出的标记的长度
+     */
+    protected static void addSkippedFrames(int count, long chars) {
+        long[] skipped = SKIPPED_FRAMES.get();
+        skipped[0] += count;
+        skipped[1] += chars;
+    }
+
+    /**
+     * 返回并清零当前线程累计的被跳过的堆栈帧数量
+     */
+    protected static int takeSkippedFrames() {
+        long[] skipped = SKIPPED_FRAMES.get();
+        int count = (int) skipped[0];
+        skipped[0] = 0;
+        return count;
+    }
+
+    /**
+     * 返回并清零当前线程累计的被跳过的堆栈帧估算的字符数
+     */
+    protected static long takeSkippedChars() {
+        long[] skipped = SKIPPED_FRAMES.get();
+        long chars = skipped[1];
+        skipped[1] = 0;
+        return chars;
+    }
+
+    /**
+     * 按 JDK 8 的格式估算 "at " + {@link StackTraceElement#toString()} 的长度，不生成字符串
+     */
+    protected static int estimateLineLength(StackTraceElement element) {
+        int length = 3 + element.getClassName().length() + 1 + element.getMethodName().length() + 2;
+        if (element.isNativeMethod()) {
+            return length + 13;
+        }
+        String fileName = element.getFileName();
+        if (fileName == null) {
+            return length + 14;
+        }
+        int lineNumber = element.getLineNumber();
+        return length + fileName.length() + (lineNumber >= 0 ? 1 + stringSize(lineNumber) : 0);
+    }
+
+    protected static int stringSize(int value) {
+        int size = 1;
+        while (value >= 10) {
+            value /= 10;
+            size++;
+        }
+        return size;
     }
 
     protected void recursiveAppend(StringBuilder sb, String prefix, int indent, boolean shouldEnableIgnore, IThrowableProxy tp) {
@@ -177,6 +363,9 @@ public class ExtensibleExtendedWhitespaceThrowableProxyConverter extends Throwab
         buf.append(tp.getClassName()).append(": ").append(tp.getMessage());
     }
 
+    /**
+     * 被跳过和折叠的堆栈帧数量及其估算的字符数在遍历时通过 {@link #addSkippedFrames(int, long)} 累计，不需要再次遍历
+     */
     protected void subjoinSTEPArray(StringBuilder buf, int indent, boolean shouldEnableIgnore, IThrowableProxy tp) {
         StackTraceElementProxy[] stepArray = tp.getStackTraceElementProxyArray();
         int commonFrames = tp.getCommonFrames();
@@ -188,30 +377,154 @@ public class ExtensibleExtendedWhitespaceThrowableProxyConverter extends Throwab
             maxIndex -= commonFrames;
         }
 
+        //限制打印行数时只先判断将要打印的帧，被跳过的帧不计入行数，打印范围后移时再分段追加判断
+        int classified = shouldEnableIgnore ? maxIndex : 0;
+        BitSet ignored = shouldEnableIgnore ? classifyFrames(stepArray, classified) : null;
+        int foldMinRepeats = unrestrictedPrinting ? getFoldMinRepeats() : 0;
+        int[] hashes = foldMinRepeats > 1 && maxIndex >= foldMinRepeats ? frameHashes(stepArray, maxIndex) : null;
+        int foldAt = -1;
+        int foldPeriod = 0;
+        int foldRepeats = 0;
         int ignoredCount = 0;
+        int ignoredTotal = 0;
+        int separator = CoreConstants.LINE_SEPARATOR.length();
+        //限制打印行数时，完整渲染只打印前 printLimit 帧，被跳过的帧使打印范围后移，后移打印的帧不算节省
+        int printLimit = maxIndex;
+        long skippedChars = 0;
         for (int i = 0; i < maxIndex; i++) {
+            if (i == foldAt) {
+                //第一轮已正常打印，之后的重复折叠为一行
+                int lineStart = buf.length();
+                ThrowableProxyUtil.indent(buf, indent);
+                printFoldedFrames(buf, stepArray, i - foldPeriod, foldPeriod, foldRepeats);
+                if (ignoredCount > 0) {
+                    printIgnoredCount(buf, ignoredCount);
+                    ignoredCount = 0;
+                }
+                buf.append(CoreConstants.LINE_SEPARATOR);
+                for (int k = 0; k < foldPeriod; k++) {
+                    skippedChars += (long) foldRepeats * (indent + estimateLineLength(stepArray[i - foldPeriod + k].getStackTraceElement()) + separator);
+                }
+                skippedChars -= buf.length() - lineStart;
+                ignoredTotal += foldPeriod * foldRepeats;
+                i += foldPeriod * foldRepeats - 1;
+                foldAt = -1;
+                continue;
+            }
+            if (hashes != null && foldAt < 0 && (foldPeriod = findRepeatingPeriod(stepArray, hashes, i, maxIndex, foldMinRepeats)) > 0) {
+                foldRepeats = countRepeats(stepArray, hashes, i, foldPeriod, maxIndex);
+                foldAt = i + foldPeriod;
+            }
+            if (ignored != null && i >= classified) {
+                int end = Math.min(stepArray.length, classified + Math.max(maxIndex - classified, CLASSIFY_CHUNK));
+                classifyFrames(stepArray, classified, end, ignored);
+                classified = end;
+            }
             StackTraceElementProxy element = stepArray[i];
-            if (shouldEnableIgnore && isIgnoredStackTraceLine(element.toString())) {
+            if (ignored != null && ignored.get(i)) {
                 ++ignoredCount;
+                ++ignoredTotal;
+                if (i < printLimit) {
+                    skippedChars += indent + estimateLineLength(element.getStackTraceElement()) + separator;
+                }
                 if (maxIndex < stepArray.length) {
                     ++maxIndex;
                 }
             } else {
                 ThrowableProxyUtil.indent(buf, indent);
                 printStackLine(buf, ignoredCount, element);
+                if (ignoredCount > 0) {
+                    //printStackLine 在行尾追加的 " [n skipped]"
+                    skippedChars -= 11 + stringSize(ignoredCount);
+                }
+                if (i >= printLimit) {
+                    skippedChars -= indent + estimateLineLength(element.getStackTraceElement()) + separator;
+                }
                 ignoredCount = 0;
                 buf.append(CoreConstants.LINE_SEPARATOR);
             }
         }
         if (ignoredCount > 0) {
+            int lineStart = buf.length();
             printIgnoredCount(buf, ignoredCount);
             buf.append(CoreConstants.LINE_SEPARATOR);
+            skippedChars -= buf.length() - lineStart;
         }
 
         if (commonFrames > 0 && unrestrictedPrinting) {
             ThrowableProxyUtil.indent(buf, indent);
             buf.append("... ").append(tp.getCommonFrames()).append(" common frames omitted").append(CoreConstants.LINE_SEPARATOR);
         }
+        addSkippedFrames(ignoredTotal, skippedChars);
+    }
+
+    /**
+     * 连续重复出现至少该次数的堆栈帧片段会被折叠为一行，如递归调用导致的 StackOverflowError，小于2时不折叠
+     */
+    protected int getFoldMinRepeats() {
+        return 0;
+    }
+
+    /**
+     * 从 start 开始查找连续重复至少 minRepeats 次的最短片段
+     *
+     * @return 片段长度，没有时返回0
+     */
+    private static int findRepeatingPeriod(StackTraceElementProxy[] stepArray, int[] hashes, int start, int end, int minRepeats) {
+        int maxPeriod = Math.min(MAX_FOLD_PERIOD, (end - start) / minRepeats);
+        for (int period = 1; period <= maxPeriod; period++) {
+            if (countRepeats(stepArray, hashes, start, period, end) >= minRepeats - 1) {
+                return period;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * [start, start + period) 片段之后紧接着重复出现的次数
+     */
+    private static int countRepeats(StackTraceElementProxy[] stepArray, int[] hashes, int start, int period, int end) {
+        int repeats = 0;
+        for (int next = start + period; next + period <= end; next += period) {
+            for (int k = 0; k < period; k++) {
+                int a = start + k;
+                int b = next + k;
+                if (hashes[a] != hashes[b] || !stepArray[a].getStackTraceElement().equals(stepArray[b].getStackTraceElement())) {
+                    return repeats;
+                }
+            }
+            repeats++;
+        }
+        return repeats;
+    }
+
+    private static int[] frameHashes(StackTraceElementProxy[] stepArray, int count) {
+        int[] hashes = new int[count];
+        for (int i = 0; i < count; i++) {
+            hashes[i] = stepArray[i].getStackTraceElement().hashCode();
+        }
+        return hashes;
+    }
+
+    /**
+     * 如 "... frames [A.b -> C.d] repeated 340 times"
+     */
+    protected void printFoldedFrames(StringBuilder buf, StackTraceElementProxy[] stepArray, int start, int period, int repeats) {
+        buf.append("... ");
+        if (period > 2) {
+            buf.append(period).append(' ');
+        }
+        buf.append("frames [");
+        appendMethod(buf, stepArray[start].getStackTraceElement());
+        if (period > 1) {
+            buf.append(period > 2 ? " -> ... -> " : " -> ");
+            appendMethod(buf, stepArray[start + period - 1].getStackTraceElement());
+        }
+        buf.append("] repeated ").append(repeats).append(repeats == 1 ? " time" : " times");
+    }
+
+    private static void appendMethod(StringBuilder buf, StackTraceElement element) {
+        buf.append(element.getClassName()).append('.').append(element.getMethodName());
     }
 
     protected void printStackLine(StringBuilder buf, int ignoredCount, StackTraceElementProxy element) {
@@ -226,10 +539,49 @@ public class ExtensibleExtendedWhitespaceThrowableProxyConverter extends Throwab
         buf.append(" [").append(ignoredCount).append(" skipped]");
     }
 
+    /**
+     * 该事件的异常是否启用堆栈行跳过，每次渲染只调用一次，命中渲染结果缓存时不调用，默认委托给 {@link #isShouldEnableIgnore(IThrowableProxy)}
+     */
+    protected boolean isShouldEnableIgnore(ILoggingEvent event, IThrowableProxy tp) {
+        return isShouldEnableIgnore(tp);
+    }
+
     protected boolean isShouldEnableIgnore(IThrowableProxy tp) {
         return true;
     }
 
+    /**
+     * 批量判断前 count 个堆栈帧是否跳过，每个异常通常只调用一次，限制打印行数时可能对后续片段再次调用，子类可覆写以避免逐帧调用
+     *
+     * @return 应该跳过的堆栈帧下标
+     */
+    protected BitSet classifyFrames(StackTraceElementProxy[] stepArray, int count) {
+        BitSet ignored = new BitSet(count);
+        for (int i = 0; i < count; i++) {
+            if (isIgnoredStackTraceLine(stepArray[i])) {
+                ignored.set(i);
+            }
+        }
+        return ignored;
+    }
+
+    /**
+     * 判断 [from, to) 的堆栈帧是否跳过，结果写入 ignored
+     */
+    private void classifyFrames(StackTraceElementProxy[] stepArray, int from, int to, BitSet ignored) {
+        BitSet chunk = classifyFrames(Arrays.copyOfRange(stepArray, from, to), to - from);
+        for (int i = chunk.nextSetBit(0); i >= 0; i = chunk.nextSetBit(i + 1)) {
+            ignored.set(from + i);
+        }
+    }
+
+    /**
+     * 以堆栈帧为单位判断是否跳过，子类可覆写以避免每帧都生成堆栈行字符串
+     */
+    protected boolean isIgnoredStackTraceLine(StackTraceElementProxy element) {
+        return isIgnoredStackTraceLine(element.toString());
+    }
+
     protected boolean isIgnoredStackTraceLine(String line) {
         if (ignoredStackTraceLines != null) {
             for (String ignoredStackTraceLine : ignoredStackTraceLines) {
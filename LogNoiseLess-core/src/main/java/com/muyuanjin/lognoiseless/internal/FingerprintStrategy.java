@@ -0,0 +1,79 @@
+package com.muyuanjin.lognoiseless.internal;
+
+import ch.qos.logback.classic.spi.IThrowableProxy;
+
+/**
+ * 重复堆栈过滤器计算堆栈指纹的方式，同一异常的原始对象和 {@link IThrowableProxy} 计算结果一致
+ * <p>
+ * 除 {@link #ALL_FRAMES} 外都包含 cause 链上每个异常的类名，cause 的公共帧（与外层异常相同的调用者帧）不参与计算
+ *
+ * @author muyuanjin
+ */
+public enum FingerprintStrategy {
+    /**
+     * 默认，最外层异常的全部堆栈帧
+     */
+    ALL_FRAMES {
+        @Override
+        public long of(IThrowableProxy throwableProxy, int topFrames) {
+            return StackFingerprint.of(throwableProxy.getStackTraceElementProxyArray());
+        }
+
+        @Override
+        public long of(Throwable throwable, int topFrames) {
+            return StackFingerprint.of(throwable.getStackTrace());
+        }
+    },
+    /**
+     * cause 链上每个异常的类名和前 topFrames 个堆栈帧，深层调用栈只需计算少量帧
+     */
+    TOP_FRAMES {
+        @Override
+        public long of(IThrowableProxy throwableProxy, int topFrames) {
+            return StackFingerprint.ofCauses(throwableProxy, topFrames, true);
+        }
+
+        @Override
+        public long of(Throwable throwable, int topFrames) {
+            return StackFingerprint.ofCauses(throwable, topFrames, true);
+        }
+    },
+    /**
+     * cause 链上每个异常的类名和抛出位置（第一个堆栈帧），开销最小，同一位置经不同调用路径抛出的异常视为重复
+     */
+    THROW_SITES {
+        @Override
+        public long of(IThrowableProxy throwableProxy, int topFrames) {
+            return StackFingerprint.ofCauses(throwableProxy, 1, true);
+        }
+
+        @Override
+        public long of(Throwable throwable, int topFrames) {
+            return StackFingerprint.ofCauses(throwable, 1, true);
+        }
+    },
+    /**
+     * cause 链上每个异常的类名和全部堆栈帧，不包括行号，重新部署导致行号变化后仍视为重复
+     */
+    LINE_INSENSITIVE {
+        @Override
+        public long of(IThrowableProxy throwableProxy, int topFrames) {
+            return StackFingerprint.ofCauses(throwableProxy, Integer.MAX_VALUE, false);
+        }
+
+        @Override
+        public long of(Throwable throwable, int topFrames) {
+            return StackFingerprint.ofCauses(throwable, Integer.MAX_VALUE, false);
+        }
+    };
+
+    /**
+     * @param topFrames 只用于 {@link #TOP_FRAMES}，每个异常参与计算的堆栈帧数
+     */
+    public abstract long of(IThrowableProxy throwableProxy, int topFrames);
+
+    /**
+     * 与 {@link #of(IThrowableProxy, int)} 对同一异常的计算结果一致
+     */
+    public abstract long of(Throwable throwable, int topFrames);
+}
@@ -7,8 +7,11 @@ import org.jetbrains.annotations.NotNull;
 
 import java.nio.charset.StandardCharsets;
 
+/**
+ * 旧的堆栈漏斗，将所有堆栈行拼接为一个字符串后写入，已被 {@link StackFingerprint} 取代，保留用于性能对比
+ */
 @SuppressWarnings({"unused", "UnstableApiUsage"})
-enum Funnels implements Funnel<StackTraceElementProxy[]> {
+public enum Funnels implements Funnel<StackTraceElementProxy[]> {
     DEFAULT {
         @Override
         public void funnel(StackTraceElementProxy @NotNull [] from, @NotNull PrimitiveSink into) {
@@ -0,0 +1,133 @@
+package com.muyuanjin.lognoiseless.internal;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.util.Assert;
+
+import java.util.function.Predicate;
+
+/**
+ * 按对象 identity 缓存最近的判断结果，同一事件被多个 appender 输出时只判断一次
+ * <p>
+ * 按 identityHashCode 分段，每段是保存最近几个对象的环，段满时覆盖最老的条目。不创建 WeakReference，
+ * 只持有最近 {@link #getCapacity()} 个对象的强引用，被覆盖后即可回收，容量只覆盖正在输出的少量事件，被覆盖后只是重新判断。
+ * 段锁只保护查找和写入，判断在锁外进行，同一段的其他事件不会等待判断，也不会在锁内固定虚拟线程；
+ * 同一对象在多个线程（如同步 appender 和异步 appender 的工作线程）上同时判断时，先写入的结果生效，所有线程返回相同的结果
+ *
+ * @author muyuanjin
+ */
+public final class IdentityDecisionCache<K> {
+    /**
+     * 每段的条目数，一个事件通常只被几个 appender 输出，几个条目足够
+     */
+    private static final int WAYS = 4;
+    private static final int MIN_SEGMENTS = 8;
+    /**
+     * 限制持有的强引用数量
+     */
+    private static final int MAX_SEGMENTS = 64;
+    private final Segment[] segments;
+    private final int mask;
+
+    public IdentityDecisionCache() {
+        this(Math.min(MAX_SEGMENTS, Math.max(MIN_SEGMENTS, Integer.highestOneBit(Runtime.getRuntime().availableProcessors()))));
+    }
+
+    /**
+     * @param segmentCount 段数，必须是 2 的幂
+     */
+    public IdentityDecisionCache(int segmentCount) {
+        Assert.isTrue(segmentCount > 0 && Integer.bitCount(segmentCount) == 1, "segmentCount must be a power of 2");
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment();
+        }
+        this.mask = segmentCount - 1;
+    }
+
+    /**
+     * 返回缓存的判断结果，没有时在锁外调用 decider 判断，其他线程已经写入结果时返回已写入的结果
+     */
+    public boolean get(K key, Predicate<? super K> decider) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            int index = segment.indexOf(key);
+            if (index >= 0) {
+                segment.hits++;
+                return segment.values[index];
+            }
+            segment.misses++;
+        }
+        boolean value = decider.test(key);
+        synchronized (segment) {
+            int index = segment.indexOf(key);
+            if (index >= 0) {
+                return segment.values[index];
+            }
+            segment.put(key, value);
+            return value;
+        }
+    }
+
+    /**
+     * 缓存的判断结果，没有时返回null，不计入命中统计
+     */
+    @Nullable
+    public Boolean getIfPresent(K key) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            int index = segment.indexOf(key);
+            return index < 0 ? null : segment.values[index];
+        }
+    }
+
+    public int getCapacity() {
+        return segments.length * WAYS;
+    }
+
+    /**
+     * 命中统计，只包括命中数和未命中数
+     */
+    public CacheStats stats() {
+        long hits = 0;
+        long misses = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                hits += segment.hits;
+                misses += segment.misses;
+            }
+        }
+        return CacheStats.of(hits, misses, 0, 0, 0, 0, 0);
+    }
+
+    private Segment segmentFor(Object key) {
+        int hash = System.identityHashCode(key);
+        return segments[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    private static final class Segment {
+        private final Object[] keys = new Object[WAYS];
+        private final boolean[] values = new boolean[WAYS];
+        /**
+         * 下一个写入的位置，即最老的条目
+         */
+        private int next;
+        private long hits;
+        private long misses;
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < WAYS; i++) {
+                if (keys[i] == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void put(Object key, boolean value) {
+            keys[next] = key;
+            values[next] = value;
+            next = (next + 1) & (WAYS - 1);
+        }
+    }
+}
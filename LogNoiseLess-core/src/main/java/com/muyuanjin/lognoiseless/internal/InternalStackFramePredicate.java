@@ -0,0 +1,16 @@
+package com.muyuanjin.lognoiseless.internal;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * janino 生成的堆栈帧判断类实现的接口
+ *
+ * @author muyuanjin
+ */
+@FunctionalInterface
+public interface InternalStackFramePredicate {
+    /**
+     * @param packageName 表达式中未使用 packageName 时为 null
+     */
+    boolean isShouldSkipFrame(String className, String methodName, @Nullable String fileName, int lineNumber, @Nullable String packageName);
+}
@@ -0,0 +1,170 @@
+package com.muyuanjin.lognoiseless.internal;
+
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import com.muyuanjin.lognoiseless.StackLineSkipPredicate;
+import org.codehaus.commons.compiler.CompileException;
+import org.codehaus.commons.compiler.Location;
+import org.codehaus.janino.ClassBodyEvaluator;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 以堆栈帧结构化字段作为变量的 janino 表达式谓词，多个表达式编译到同一个生成类中，每个表达式为一个方法
+ * <p>
+ * 判断结果由 {@link NoiseLessConfig#isShouldSkipFrame} 按堆栈帧缓存
+ *
+ * @author muyuanjin
+ */
+final class JaninoFramePredicate implements StackLineSkipPredicate {
+    private static final Pattern NAMED_EXPRESSION = Pattern.compile("^([A-Za-z_$][\\w$]*)\\s*:\\s*(.+)$");
+    private static final String PARAMETERS = "String className, String methodName, String fileName, int lineNumber, String packageName";
+    private static final String ARGUMENTS = "className, methodName, fileName, lineNumber, packageName";
+    private final InternalStackFramePredicate delegate;
+    /**
+     * 表达式中未使用 packageName 时不计算，避免每帧截取字符串
+     */
+    private final boolean packageNameUsed;
+
+    private JaninoFramePredicate(InternalStackFramePredicate delegate, boolean packageNameUsed) {
+        this.delegate = delegate;
+        this.packageNameUsed = packageNameUsed;
+    }
+
+    /**
+     * @param property 每行一个表达式，可以用 "名称: 表达式" 命名
+     */
+    static JaninoFramePredicate compile(String property) {
+        List<String> names = new ArrayList<>();
+        List<String> expressions = new ArrayList<>();
+        for (String line : property.split("\\r?\\n")) {
+            line = line.trim();
+            if (line.endsWith(";")) {
+                line = line.substring(0, line.length() - 1).trim();
+            }
+            if (line.isEmpty()) {
+                continue;
+            }
+            Matcher matcher = NAMED_EXPRESSION.matcher(line);
+            if (matcher.matches()) {
+                names.add(matcher.group(1));
+                expressions.add(matcher.group(2));
+            } else {
+                names.add("#" + (expressions.size() + 1));
+                expressions.add(line);
+            }
+        }
+        Assert.notEmpty(expressions, "janino frame expression can not be empty");
+        //每个表达式的方法独占一行，编译错误的行号即为表达式的序号
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < expressions.size(); i++) {
+            body.append("private static boolean rule").append(i).append('(').append(PARAMETERS).append(") { return ")
+                    .append(expressions.get(i)).append("; }\n");
+        }
+        body.append("public boolean isShouldSkipFrame(").append(PARAMETERS).append(") {\n    return ");
+        for (int i = 0; i < expressions.size(); i++) {
+            if (i > 0) {
+                body.append("\n        || ");
+            }
+            body.append("rule").append(i).append('(').append(ARGUMENTS).append(')');
+        }
+        body.append(";\n}\n");
+        ClassBodyEvaluator evaluator = new ClassBodyEvaluator();
+        evaluator.setParentClassLoader(InternalStackFramePredicate.class.getClassLoader());
+        evaluator.setImplementedInterfaces(new Class[]{InternalStackFramePredicate.class});
+        try {
+            evaluator.cook(body.toString());
+            InternalStackFramePredicate delegate = (InternalStackFramePredicate) evaluator.getClazz().getConstructor().newInstance();
+            return new JaninoFramePredicate(delegate, property.contains("packageName"));
+        } catch (CompileException e) {
+            Location location = e.getLocation();
+            int index = location == null ? -1 : location.getLineNumber() - 1;
+            if (index >= 0 && index < expressions.size()) {
+                throw new IllegalArgumentException("janino 表达式 [" + names.get(index) + "] 编译失败: " + expressions.get(index) + ", error: " + e.getMessage(), e);
+            }
+            throw new IllegalArgumentException("janino 表达式编译失败, error: " + e.getMessage(), e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public boolean isShouldSkipFrame(StackTraceElementProxy frame) {
+        StackTraceElement element = frame.getStackTraceElement();
+        String className = element.getClassName();
+        return delegate.isShouldSkipFrame(className, element.getMethodName(), element.getFileName(), element.getLineNumber(),
+                packageNameUsed ? packageName(className) : null);
+    }
+
+    @Override
+    public BitSet classifyFrames(StackTraceElementProxy[] frames, int count) {
+        BitSet skipped = new BitSet(count);
+        InternalStackFramePredicate delegate = this.delegate;
+        boolean packageNameUsed = this.packageNameUsed;
+        for (int i = 0; i < count; i++) {
+            StackTraceElement element = frames[i].getStackTraceElement();
+            String className = element.getClassName();
+            if (delegate.isShouldSkipFrame(className, element.getMethodName(), element.getFileName(), element.getLineNumber(),
+                    packageNameUsed ? packageName(className) : null)) {
+                skipped.set(i);
+            }
+        }
+        return skipped;
+    }
+
+    /**
+     * 解析 "at 类名.方法名(文件名:行号)" 格式的堆栈行，只在调用方没有堆栈帧时使用
+     */
+    @Override
+    public boolean isShouldSkipLine(String line) {
+        String text = line.trim();
+        if (text.startsWith("at ")) {
+            text = text.substring(3);
+        }
+        int open = text.indexOf('(');
+        String qualifiedMethod = open < 0 ? text : text.substring(0, open);
+        //JDK 9 之后可能带有 "模块名/" 前缀
+        qualifiedMethod = qualifiedMethod.substring(qualifiedMethod.lastIndexOf('/') + 1);
+        int dot = qualifiedMethod.lastIndexOf('.');
+        String className = dot < 0 ? qualifiedMethod : qualifiedMethod.substring(0, dot);
+        String methodName = dot < 0 ? "" : qualifiedMethod.substring(dot + 1);
+        String fileName = null;
+        int lineNumber = -1;
+        int close = text.indexOf(')', open + 1);
+        if (open >= 0 && close > open) {
+            String location = text.substring(open + 1, close);
+            int colon = location.lastIndexOf(':');
+            if ("Native Method".equals(location)) {
+                lineNumber = -2;
+            } else if (colon >= 0) {
+                fileName = location.substring(0, colon);
+                lineNumber = parseLineNumber(location.substring(colon + 1));
+            } else if (!"Unknown Source".equals(location)) {
+                fileName = location;
+            }
+        }
+        return delegate.isShouldSkipFrame(className, methodName, fileName, lineNumber, packageNameUsed ? packageName(className) : null);
+    }
+
+    private static String packageName(String className) {
+        int dot = className.lastIndexOf('.');
+        return dot < 0 ? "" : className.substring(0, dot);
+    }
+
+    private static int parseLineNumber(@Nullable String text) {
+        if (!StringUtils.hasText(text)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
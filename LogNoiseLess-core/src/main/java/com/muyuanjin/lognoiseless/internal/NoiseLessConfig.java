@@ -1,5 +1,10 @@
 package com.muyuanjin.lognoiseless.internal;
 
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.muyuanjin.lognoiseless.StackLineSkipPredicate;
 import com.muyuanjin.lognoiseless.util.ConfigUtil;
 import com.muyuanjin.lognoiseless.util.InstanceUtil;
@@ -8,9 +13,16 @@ import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.convert.ApplicationConversionService;
 import org.springframework.core.convert.ConversionService;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -23,7 +35,218 @@ public class NoiseLessConfig {
     private static final String PROPERTY_SKIP_MODE = "logback.stackTrace.skipLineMode";
     private static final String PROPERTY_MAX_NUM_PER_CYCLE = "logback.stackTrace.maxNumPerCycle";
     private static final String PROPERTY_CYCLE_DURATION = "logback.stackTrace.cycleDuration";
-    public static final LazyReference<NoiseLessConfig> INSTANCE = new LazyReference<>(() -> {
+    private static final String PROPERTY_DUPLICATE_FILTER = "logback.stackTrace.duplicateFilter";
+    private static final String PROPERTY_DUPLICATE_FILTER_MAX_MEMORY = "logback.stackTrace.duplicateFilterMaxMemory";
+    private static final DataSize DEFAULT_DUPLICATE_FILTER_MAX_MEMORY = DataSize.ofBytes(AbstractThrowableDuplicateFilter.DEFAULT_MAX_MEMORY_BYTES);
+    private static final String PROPERTY_BLOOM_GENERATIONS = "logback.stackTrace.bloomGenerations";
+    private static final String PROPERTY_SHARED_FILTER_PATH = "logback.stackTrace.sharedFilterPath";
+    private static final String PROPERTY_FINGERPRINT = "logback.stackTrace.fingerprint";
+    private static final String PROPERTY_FINGERPRINT_TOP_FRAMES = "logback.stackTrace.fingerprintTopFrames";
+    private static final String PROPERTY_SUMMARY_INTERVAL = "logback.stackTrace.summaryInterval";
+    private static final Duration DEFAULT_SUMMARY_INTERVAL = Duration.ofMinutes(5);
+    private static final String PROPERTY_SUMMARY_MAX_ENTRIES = "logback.stackTrace.summaryMaxEntries";
+    private static final int DEFAULT_SUMMARY_MAX_ENTRIES = 1024;
+    private static final String PROPERTY_FRAME_CACHE_SIZE = "logback.stackTrace.frameCacheSize";
+    private static final int DEFAULT_FRAME_CACHE_SIZE = 4096;
+    private static final String PROPERTY_RENDER_CACHE = "logback.stackTrace.renderCache";
+    private static final String PROPERTY_TEMPLATE_CACHE_SIZE = "logback.stackTrace.templateCacheSize";
+    private static final int DEFAULT_TEMPLATE_CACHE_SIZE = 256;
+    private static final String PROPERTY_FOLD_MIN_REPEATS = "logback.stackTrace.foldMinRepeats";
+    private static final String PROPERTY_RULES = "logback.stackTrace.rules";
+    private static final String PROPERTY_SNAPSHOT_PATH = "logback.stackTrace.snapshotPath";
+    private static final String PROPERTY_SNAPSHOT_INTERVAL = "logback.stackTrace.snapshotInterval";
+    private static final Duration DEFAULT_SNAPSHOT_INTERVAL = Duration.ofMinutes(1);
+    private static final String PROPERTY_RENDER_BUDGET_CHARS = "logback.stackTrace.renderBudgetChars";
+    private static final String PROPERTY_RENDER_BUDGET_TOP_FRAMES = "logback.stackTrace.renderBudgetTopFrames";
+    private static final int DEFAULT_RENDER_BUDGET_TOP_FRAMES = 5;
+    public static final LazyReference<NoiseLessConfig> INSTANCE = new LazyReference<>(() -> create(null), NoiseLessConfig::refresh);
+    /**
+     * 日志堆栈打印跳过行的模式
+     */
+    private final SkipLineMode skipLineMode;
+    /**
+     * 堆栈行跳过谓词
+     */
+    private final StackLineSkipPredicate predicate;
+    /**
+     * 每个周期允许打印全栈的最大数量
+     */
+    private final long maxNumOfAllowedToPrintFullStackPerCycle;
+    /**
+     * 周期时长
+     */
+    private final Duration cycleDuration;
+    /**
+     * 重复堆栈过滤器的实现方式，未启用时为null
+     */
+    @Nullable
+    private final DuplicateFilterMode duplicateFilterMode;
+    /**
+     * 重复堆栈过滤器配置，未启用时为null
+     */
+    @Nullable
+    private final DuplicateFilterSettings duplicateFilterSettings;
+    /**
+     * 按异常类型和 logger 名称匹配的策略规则，未配置时为null
+     */
+    @Nullable
+    private final NoisePolicyTable policyTable;
+    /**
+     * 堆栈帧跳过判断结果缓存，随配置实例一起创建，配置变更后自然失效，为null时表示不缓存
+     */
+    @Nullable
+    private final Cache<StackTraceElement, Boolean> frameSkipCache;
+    /**
+     * 是否在多个 appender 间共享同一异常的渲染结果
+     */
+    private final boolean renderCacheEnabled;
+    /**
+     * 跳过模式下堆栈帧渲染模板缓存的最大数量，为0时不缓存
+     */
+    private final int templateCacheSize;
+    /**
+     * 连续重复出现至少该次数的堆栈帧片段折叠为一行，小于2时不折叠
+     */
+    private final int foldMinRepeats;
+    /**
+     * 重复堆栈过滤器状态的快照，未配置快照文件或未启用过滤器时为null
+     */
+    @Nullable
+    private final DuplicateFilterSnapshot filterSnapshot;
+    /**
+     * 每秒渲染堆栈字符数的全局预算，未配置时为null
+     */
+    @Nullable
+    private final RenderBudget renderBudget;
+
+    /**
+     * 该 logger 输出的异常使用的谓词，第一条匹配的策略规则对应的谓词，没有匹配的规则时为 {@link #predicate}
+     */
+    public StackLineSkipPredicate getPredicate(@Nullable String loggerName, IThrowableProxy throwableProxy) {
+        return policyTable == null ? predicate : policyTable.route(loggerName, throwableProxy, predicate);
+    }
+
+    /**
+     * 按原始异常对象选择谓词，与 {@link #getPredicate(String, IThrowableProxy)} 的结果一致
+     */
+    public StackLineSkipPredicate getPredicate(@Nullable String loggerName, Throwable throwable) {
+        return policyTable == null ? predicate : policyTable.route(loggerName, throwable, predicate);
+    }
+
+    /**
+     * 全局配置和所有策略规则的重复堆栈过滤器
+     */
+    public List<AbstractThrowableDuplicateFilter> getDuplicateFilters() {
+        List<AbstractThrowableDuplicateFilter> filters = new ArrayList<>();
+        if (predicate instanceof AbstractThrowableDuplicateFilter) {
+            filters.add((AbstractThrowableDuplicateFilter) predicate);
+        }
+        if (policyTable != null) {
+            for (StackLineSkipPredicate rulePredicate : policyTable.getPredicates()) {
+                if (rulePredicate instanceof AbstractThrowableDuplicateFilter) {
+                    filters.add((AbstractThrowableDuplicateFilter) rulePredicate);
+                }
+            }
+        }
+        return filters;
+    }
+
+    /**
+     * 判断该堆栈帧是否应该跳过，同一帧的判断结果会被缓存，避免重复生成堆栈行字符串和调用谓词
+     */
+    public boolean isShouldSkipFrame(StackTraceElementProxy frame) {
+        StackTraceElement element;
+        if (frameSkipCache == null || (element = frame.getStackTraceElement()) == null) {
+            return predicate.isShouldSkipFrame(frame);
+        }
+        Boolean skip = frameSkipCache.getIfPresent(element);
+        if (skip == null) {
+            skip = predicate.isShouldSkipFrame(frame);
+            frameSkipCache.put(element, skip);
+        }
+        return skip;
+    }
+
+    /**
+     * 批量判断前 count 个堆栈帧是否应该跳过，缓存未命中的堆栈帧合并为一次谓词批量调用
+     *
+     * @return 应该跳过的堆栈帧下标
+     */
+    public BitSet classifyFrames(StackTraceElementProxy[] frames, int count) {
+        if (frameSkipCache == null) {
+            return predicate.classifyFrames(frames, count);
+        }
+        BitSet skipped = new BitSet(count);
+        int[] missing = null;
+        int missingCount = 0;
+        for (int i = 0; i < count; i++) {
+            StackTraceElement element = frames[i].getStackTraceElement();
+            Boolean skip = element == null ? null : frameSkipCache.getIfPresent(element);
+            if (skip == null) {
+                if (missing == null) {
+                    missing = new int[count - i];
+                }
+                missing[missingCount++] = i;
+            } else if (skip) {
+                skipped.set(i);
+            }
+        }
+        if (missingCount == 0) {
+            return skipped;
+        }
+        StackTraceElementProxy[] missingFrames = new StackTraceElementProxy[missingCount];
+        for (int i = 0; i < missingCount; i++) {
+            missingFrames[i] = frames[missing[i]];
+        }
+        BitSet missingSkipped = predicate.classifyFrames(missingFrames, missingCount);
+        for (int i = 0; i < missingCount; i++) {
+            boolean skip = missingSkipped.get(i);
+            if (skip) {
+                skipped.set(missing[i]);
+            }
+            StackTraceElement element = missingFrames[i].getStackTraceElement();
+            if (element != null) {
+                frameSkipCache.put(element, skip);
+            }
+        }
+        return skipped;
+    }
+
+    /**
+     * 堆栈帧跳过判断结果缓存的命中统计，未启用缓存时返回空统计
+     */
+    public CacheStats getFrameSkipCacheStats() {
+        return frameSkipCache == null ? CacheStats.empty() : frameSkipCache.stats();
+    }
+
+    /**
+     * 按当前属性重新创建配置并整体替换 {@link #INSTANCE}，重复堆栈过滤器的实现方式和周期配置未变化时保留已记录的堆栈，
+     * 未初始化时不做任何事
+     *
+     * @return 是否已替换
+     */
+    public static boolean refresh() {
+        return INSTANCE.refresh();
+    }
+
+    /**
+     * 新配置创建失败时继续使用原配置，避免运行期间的错误配置关闭所有噪音抑制
+     */
+    @Nullable
+    private static NoiseLessConfig refresh(@Nullable NoiseLessConfig previous) {
+        NoiseLessConfig config = create(previous);
+        if (config == null && previous != null && StringUtils.hasText(ConfigUtil.getProperty(PROPERTY_SKIP_STACK_TRACE_LINES))) {
+            System.err.println("LogNoiseLess 配置刷新失败,将继续使用原配置");
+            return previous;
+        }
+        return config;
+    }
+
+    /**
+     * @param previous 刷新前的配置，首次创建时为null
+     */
+    @Nullable
+    private static NoiseLessConfig create(@Nullable NoiseLessConfig previous) {
         String property = ConfigUtil.getProperty(PROPERTY_SKIP_STACK_TRACE_LINES);
         if (!StringUtils.hasText(property)) {
             return null;
@@ -50,33 +273,250 @@ public class NoiseLessConfig {
             return null;
         }
         int maxNumPerCycle = ConfigUtil.getInt(PROPERTY_MAX_NUM_PER_CYCLE, 0);
+        ConversionService conversionService = InstanceUtil.getInstance(ApplicationConversionService.class);
         Duration duration = null;
+        String cycleDurationStr = ConfigUtil.getProperty(PROPERTY_CYCLE_DURATION);
+        if (cycleDurationStr != null && conversionService != null) {
+            duration = conversionService.convert(cycleDurationStr, Duration.class);
+        }
+        //全局配置和策略规则共用过滤器的实现方式、内存上限、布隆过滤器代数和指纹计算方式
+        String filterModeStr = ConfigUtil.getProperty(PROPERTY_DUPLICATE_FILTER, DuplicateFilterMode.AUTO.name());
+        DuplicateFilterMode defaultFilterMode;
+        try {
+            defaultFilterMode = DuplicateFilterMode.valueOf(filterModeStr.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("DuplicateFilterMode:" + filterModeStr + " 设置失败 ,将使用默认值 " + DuplicateFilterMode.AUTO);
+            defaultFilterMode = DuplicateFilterMode.AUTO;
+        }
+        DataSize maxMemory = DEFAULT_DUPLICATE_FILTER_MAX_MEMORY;
+        String maxMemoryStr = ConfigUtil.getProperty(PROPERTY_DUPLICATE_FILTER_MAX_MEMORY);
+        if (maxMemoryStr != null && conversionService != null) {
+            maxMemory = conversionService.convert(maxMemoryStr, DataSize.class);
+        }
+        int bloomGenerations = Math.max(2, ConfigUtil.getInt(PROPERTY_BLOOM_GENERATIONS, BloomThrowableDuplicateFilter.DEFAULT_GENERATIONS));
+        String fingerprintStr = ConfigUtil.getProperty(PROPERTY_FINGERPRINT, FingerprintStrategy.ALL_FRAMES.name());
+        FingerprintStrategy fingerprint;
+        try {
+            fingerprint = FingerprintStrategy.valueOf(fingerprintStr.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("FingerprintStrategy:" + fingerprintStr + " 设置失败 ,将使用默认值 " + FingerprintStrategy.ALL_FRAMES);
+            fingerprint = FingerprintStrategy.ALL_FRAMES;
+        }
+        int fingerprintTopFrames = Math.max(1, ConfigUtil.getInt(PROPERTY_FINGERPRINT_TOP_FRAMES, AbstractThrowableDuplicateFilter.DEFAULT_FINGERPRINT_TOP_FRAMES));
+        String sharedFilePath = defaultFilterMode == DuplicateFilterMode.SHARED_MMAP ? getSharedFilePath() : null;
+        boolean snapshotEnabled = StringUtils.hasText(ConfigUtil.getProperty(PROPERTY_SNAPSHOT_PATH));
+        DuplicateFilterMode filterMode = null;
+        DuplicateFilterSettings filterSettings = null;
         if (maxNumPerCycle > 0) {
-            String cycleDurationStr = ConfigUtil.getProperty(PROPERTY_CYCLE_DURATION);
-            ConversionService conversionService = InstanceUtil.getInstance(ApplicationConversionService.class);
-            if (cycleDurationStr != null && conversionService != null) {
-                duration = conversionService.convert(cycleDurationStr, Duration.class);
+            filterMode = defaultFilterMode;
+            if (duration != null) {
+                filterSettings = new DuplicateFilterSettings(maxNumPerCycle, duration, maxMemory.toBytes(), bloomGenerations, sharedFilePath,
+                        fingerprint, fingerprintTopFrames, snapshotEnabled);
+            }
+        }
+        List<NoisePolicyRule> rules = readRules(conversionService, duration, defaultFilterMode, maxMemory.toBytes(), bloomGenerations, sharedFilePath,
+                fingerprint, fingerprintTopFrames, snapshotEnabled);
+        SuppressionReporter reporter = null;
+        DuplicateFilterSnapshot filterSnapshot = null;
+        if (filterSettings != null || rules.stream().anyMatch(rule -> rule.getDuplicateFilterSettings() != null)) {
+            reporter = createSuppressionReporter(previous, conversionService);
+            filterSnapshot = createFilterSnapshot(previous, conversionService);
+        }
+        StackLineSkipPredicate predicate = skipPredicate;
+        if (filterSettings != null) {
+            boolean reusable = previous != null && previous.duplicateFilterMode == filterMode && filterSettings.equals(previous.duplicateFilterSettings);
+            predicate = createFilter(filterMode, filterSettings, skipPredicate, reusable ? previous.predicate : null, reporter);
+        }
+        NoisePolicyTable policyTable = null;
+        if (!rules.isEmpty()) {
+            List<StackLineSkipPredicate> rulePredicates = new ArrayList<>(rules.size());
+            for (NoisePolicyRule rule : rules) {
+                if (rule.getDuplicateFilterMode() == null || rule.getDuplicateFilterSettings() == null) {
+                    rulePredicates.add(skipPredicate);
+                    continue;
+                }
+                StackLineSkipPredicate previousFilter = previous == null || previous.policyTable == null ? null : previous.policyTable.getPredicate(rule);
+                rulePredicates.add(createFilter(rule.getDuplicateFilterMode(), rule.getDuplicateFilterSettings(), skipPredicate, previousFilter, reporter));
             }
+            policyTable = new NoisePolicyTable(rules, rulePredicates);
         }
-        if (maxNumPerCycle > 0 && duration != null) {
-            skipPredicate = maxNumPerCycle == 1 ? new BloomThrowableDuplicateFilter(duration, skipPredicate) : new CuckooThrowableDuplicateFilter(maxNumPerCycle, duration, skipPredicate);
+        int frameCacheSize = ConfigUtil.getInt(PROPERTY_FRAME_CACHE_SIZE, DEFAULT_FRAME_CACHE_SIZE);
+        Cache<StackTraceElement, Boolean> frameSkipCache = frameCacheSize > 0
+                ? Caffeine.newBuilder().maximumSize(frameCacheSize).recordStats().build() : null;
+        boolean renderCache = ConfigUtil.getBoolean(PROPERTY_RENDER_CACHE, true);
+        int templateCacheSize = ConfigUtil.getInt(PROPERTY_TEMPLATE_CACHE_SIZE, DEFAULT_TEMPLATE_CACHE_SIZE);
+        int foldMinRepeats = ConfigUtil.getInt(PROPERTY_FOLD_MIN_REPEATS, 0);
+        NoiseLessConfig config = new NoiseLessConfig(mode, predicate, maxNumPerCycle, duration, filterMode, filterSettings, policyTable,
+                frameSkipCache, renderCache, templateCacheSize, foldMinRepeats, filterSnapshot, createRenderBudget(previous));
+        //只在启动时恢复，刷新时沿用的过滤器已经在使用中
+        if (filterSnapshot != null && previous == null) {
+            try {
+                filterSnapshot.restore(config);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("重复堆栈过滤器快照:" + filterSnapshot.getPath() + " 读取失败,将使用空的过滤器, error:" + e);
+            }
         }
-        return new NoiseLessConfig(mode, skipPredicate, maxNumPerCycle, duration);
-    });
+        return config;
+    }
+
     /**
-     * 日志堆栈打印跳过行的模式
+     * @param previous 刷新前同一配置的过滤器，不为null时沿用已记录的堆栈，只替换判断谓词
      */
-    private final SkipLineMode skipLineMode;
+    private static AbstractThrowableDuplicateFilter createFilter(DuplicateFilterMode mode, DuplicateFilterSettings settings, StackLineSkipPredicate skipPredicate,
+                                                                 @Nullable StackLineSkipPredicate previous, @Nullable SuppressionReporter reporter) {
+        AbstractThrowableDuplicateFilter filter = previous instanceof AbstractThrowableDuplicateFilter
+                ? ((AbstractThrowableDuplicateFilter) previous).withPredicate(skipPredicate) : mode.create(settings, skipPredicate);
+        filter.setSuppressionReporter(reporter);
+        filter.setFingerprintStrategy(settings.getFingerprintStrategy(), settings.getFingerprintTopFrames());
+        return filter;
+    }
+
     /**
-     * 堆栈行跳过谓词
+     * 所有过滤器共用一个汇总统计，间隔和条目上限未变化时沿用刷新前的统计
      */
-    private final StackLineSkipPredicate predicate;
+    @Nullable
+    private static SuppressionReporter createSuppressionReporter(@Nullable NoiseLessConfig previous, @Nullable ConversionService conversionService) {
+        Duration summaryInterval = DEFAULT_SUMMARY_INTERVAL;
+        String summaryIntervalStr = ConfigUtil.getProperty(PROPERTY_SUMMARY_INTERVAL);
+        if (summaryIntervalStr != null && conversionService != null) {
+            summaryInterval = conversionService.convert(summaryIntervalStr, Duration.class);
+        }
+        if (summaryInterval == null || summaryInterval.isNegative() || summaryInterval.isZero()) {
+            return null;
+        }
+        int summaryMaxEntries = Math.max(1, ConfigUtil.getInt(PROPERTY_SUMMARY_MAX_ENTRIES, DEFAULT_SUMMARY_MAX_ENTRIES));
+        SuppressionReporter reporter = null;
+        if (previous != null) {
+            for (AbstractThrowableDuplicateFilter filter : previous.getDuplicateFilters()) {
+                if ((reporter = filter.getSuppressionReporter()) != null) {
+                    break;
+                }
+            }
+        }
+        if (reporter == null || !reporter.getInterval().equals(summaryInterval) || reporter.getMaxEntries() != summaryMaxEntries) {
+            reporter = new SuppressionReporter(summaryInterval, summaryMaxEntries);
+        }
+        return reporter;
+    }
+
     /**
-     * 每个周期允许打印全栈的最大数量
+     * 预算按字符数计，转换器不知道输出的编码，无法按字节计。预算和帧数未变化时沿用原来的令牌桶，刷新不会重置剩余的令牌
      */
-    private final long maxNumOfAllowedToPrintFullStackPerCycle;
+    @Nullable
+    private static RenderBudget createRenderBudget(@Nullable NoiseLessConfig previous) {
+        long charsPerSecond = ConfigUtil.getLong(PROPERTY_RENDER_BUDGET_CHARS, 0);
+        if (charsPerSecond <= 0) {
+            return null;
+        }
+        int topFrames = Math.max(1, ConfigUtil.getInt(PROPERTY_RENDER_BUDGET_TOP_FRAMES, DEFAULT_RENDER_BUDGET_TOP_FRAMES));
+        RenderBudget reusable = previous == null ? null : previous.renderBudget;
+        if (reusable != null && reusable.getCharsPerSecond() == charsPerSecond && reusable.getTopFrames() == topFrames) {
+            return reusable;
+        }
+        return new RenderBudget(charsPerSecond, topFrames);
+    }
+
     /**
-     * 周期时长
+     * 未配置快照文件时不保存，文件路径和保存间隔未变化时沿用刷新前的快照
      */
-    private final Duration cycleDuration;
+    @Nullable
+    private static DuplicateFilterSnapshot createFilterSnapshot(@Nullable NoiseLessConfig previous, @Nullable ConversionService conversionService) {
+        String path = ConfigUtil.getProperty(PROPERTY_SNAPSHOT_PATH);
+        if (!StringUtils.hasText(path)) {
+            return null;
+        }
+        Duration interval = DEFAULT_SNAPSHOT_INTERVAL;
+        String intervalStr = ConfigUtil.getProperty(PROPERTY_SNAPSHOT_INTERVAL);
+        if (intervalStr != null && conversionService != null) {
+            interval = conversionService.convert(intervalStr, Duration.class);
+        }
+        if (interval == null) {
+            interval = DEFAULT_SNAPSHOT_INTERVAL;
+        }
+        DuplicateFilterSnapshot snapshot = previous == null ? null : previous.filterSnapshot;
+        if (snapshot != null && snapshot.getPath().equals(Paths.get(path.trim())) && snapshot.getInterval().equals(interval)) {
+            return snapshot;
+        }
+        return new DuplicateFilterSnapshot(Paths.get(path.trim()), interval);
+    }
+
+    /**
+     * 按下标顺序读取 logback.stackTrace.rules[n]，遇到 exceptions 和 loggers 都未配置的下标时结束
+     */
+    private static List<NoisePolicyRule> readRules(@Nullable ConversionService conversionService, @Nullable Duration defaultDuration,
+                                                   DuplicateFilterMode filterMode, long maxMemoryBytes, int bloomGenerations, @Nullable String sharedFilePath,
+                                                   FingerprintStrategy fingerprint, int fingerprintTopFrames, boolean snapshotEnabled) {
+        List<NoisePolicyRule> rules = new ArrayList<>();
+        for (int i = 0; ; i++) {
+            String prefix = PROPERTY_RULES + "[" + i + "].";
+            List<String> exceptions = getList(prefix + "exceptions");
+            List<String> loggers = getList(prefix + "loggers");
+            if (exceptions.isEmpty() && loggers.isEmpty()) {
+                return rules;
+            }
+            if (rules.size() >= NoisePolicyTable.MAX_RULES) {
+                System.err.println("[" + PROPERTY_RULES + "] 最多支持 " + NoisePolicyTable.MAX_RULES + " 条规则, 第 " + i + " 条及之后的规则将被忽略");
+                return rules;
+            }
+            int maxNumPerCycle = Math.max(0, ConfigUtil.getInt(prefix + "maxNumPerCycle", 0));
+            DuplicateFilterSettings settings = null;
+            if (maxNumPerCycle > 0) {
+                Duration duration = defaultDuration;
+                String durationStr = ConfigUtil.getProperty(prefix + "cycleDuration");
+                if (durationStr != null && conversionService != null) {
+                    duration = conversionService.convert(durationStr, Duration.class);
+                }
+                if (duration == null) {
+                    System.err.println("[" + prefix + "cycleDuration] 未配置, 该规则将被忽略");
+                    continue;
+                }
+                //每条规则使用单独的共享文件，避免不同规则的计数互相影响；文件名取决于匹配条件而不是下标，插入或调整规则顺序后仍使用原来的文件
+                settings = new DuplicateFilterSettings(maxNumPerCycle, duration, maxMemoryBytes, bloomGenerations,
+                        sharedFilePath == null ? null : sharedFilePath + ".rule-" + ruleSignature(exceptions, loggers), fingerprint, fingerprintTopFrames,
+                        snapshotEnabled);
+            }
+            rules.add(new NoisePolicyRule(exceptions, loggers, maxNumPerCycle, settings == null ? null : filterMode, settings));
+        }
+    }
+
+    /**
+     * 匹配条件的稳定签名，只与异常类名和 logger 名称有关，周期等配置不一致由共享文件的头部检查
+     */
+    private static String ruleSignature(List<String> exceptions, List<String> loggers) {
+        return Integer.toHexString(("exceptions=" + exceptions + ";loggers=" + loggers).hashCode());
+    }
+
+    /**
+     * 未配置时同一应用（spring.application.name）的进程共享临时目录下的同一文件
+     */
+    private static String getSharedFilePath() {
+        String path = ConfigUtil.getProperty(PROPERTY_SHARED_FILTER_PATH);
+        if (StringUtils.hasText(path)) {
+            return path.trim();
+        }
+        String application = ConfigUtil.getProperty("spring.application.name", "default");
+        return Paths.get(System.getProperty("java.io.tmpdir"), "lognoiseless-" + application + ".dedup").toString();
+    }
+
+    /**
+     * 支持逗号分隔的字符串和 yaml 列表（key[0]、key[1]...）两种写法
+     */
+    private static List<String> getList(String key) {
+        String value = ConfigUtil.getProperty(key);
+        List<String> values = new ArrayList<>();
+        if (value != null) {
+            for (String item : StringUtils.commaDelimitedListToStringArray(value)) {
+                if (StringUtils.hasText(item)) {
+                    values.add(item.trim());
+                }
+            }
+            return values;
+        }
+        for (int i = 0; (value = ConfigUtil.getProperty(key + "[" + i + "]")) != null; i++) {
+            if (StringUtils.hasText(value)) {
+                values.add(value.trim());
+            }
+        }
+        return values;
+    }
 }
@@ -0,0 +1,55 @@
+package com.muyuanjin.lognoiseless.internal;
+
+import com.muyuanjin.lognoiseless.util.SpringEnvUtil;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+
+/**
+ * 监听 Spring Cloud 的 EnvironmentChangeEvent（配置中心刷新、actuator env 修改），
+ * 变更的属性包含 logback.stackTrace 前缀时刷新 {@link NoiseLessConfig#INSTANCE}
+ * <p>
+ * 不直接依赖 spring-cloud-context，按类名识别事件并反射获取变更的属性
+ *
+ * @author muyuanjin
+ */
+public class NoiseLessConfigRefreshListener implements ApplicationListener<ApplicationEvent> {
+    private static final String ENVIRONMENT_CHANGE_EVENT_CLASS = "org.springframework.cloud.context.environment.EnvironmentChangeEvent";
+    private static final String PROPERTY_PREFIX = "logback.stackTrace.";
+
+    @Override
+    public void onApplicationEvent(@NotNull ApplicationEvent event) {
+        if (!ENVIRONMENT_CHANGE_EVENT_CLASS.equals(event.getClass().getName()) || !isNoiseLessPropertyChanged(event)) {
+            return;
+        }
+        //Spring Cloud 刷新时会创建临时的 SpringApplication，以事件所属上下文的环境为准
+        if (event.getSource() instanceof ConfigurableApplicationContext) {
+            ConfigurableEnvironment environment = ((ConfigurableApplicationContext) event.getSource()).getEnvironment();
+            SpringEnvUtil.setEnvironment(environment);
+        }
+        NoiseLessConfig.refresh();
+    }
+
+    private static boolean isNoiseLessPropertyChanged(ApplicationEvent event) {
+        Method getKeys = ReflectionUtils.findMethod(event.getClass(), "getKeys");
+        if (getKeys == null) {
+            return true;
+        }
+        Object keys = ReflectionUtils.invokeMethod(getKeys, event);
+        if (!(keys instanceof Collection)) {
+            return true;
+        }
+        for (Object key : (Collection<?>) keys) {
+            if (key instanceof String && ((String) key).regionMatches(true, 0, PROPERTY_PREFIX, 0, PROPERTY_PREFIX.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,37 @@
+package com.muyuanjin.lognoiseless.internal;
+
+import lombok.Data;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * 按异常类型和 logger 名称匹配的重复堆栈策略规则，覆盖全局的周期内最大打印全栈数量和周期时长
+ *
+ * @author muyuanjin
+ */
+@Data
+public class NoisePolicyRule {
+    /**
+     * 匹配的异常类名，异常本身、父类、接口或 cause 链上任一异常匹配即可，为空时匹配所有异常
+     */
+    private final List<String> exceptions;
+    /**
+     * 匹配的 logger 名称，同时匹配其下级 logger，为空时匹配所有 logger
+     */
+    private final List<String> loggers;
+    /**
+     * 每个周期允许打印全栈的最大数量，=0时每次均跳过
+     */
+    private final int maxNumPerCycle;
+    /**
+     * 重复堆栈过滤器的实现方式，未启用时为null
+     */
+    @Nullable
+    private final DuplicateFilterMode duplicateFilterMode;
+    /**
+     * 重复堆栈过滤器配置，未启用时为null
+     */
+    @Nullable
+    private final DuplicateFilterSettings duplicateFilterSettings;
+}
@@ -0,0 +1,196 @@
+package com.muyuanjin.lognoiseless.internal;
+
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.muyuanjin.lognoiseless.StackLineSkipPredicate;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 策略规则的路由表，规则按配置顺序匹配，第一条同时匹配 logger 名称和异常的规则生效，没有匹配的规则时使用全局配置
+ * <p>
+ * 每条规则对应位掩码中的一位，异常类型的匹配结果（包括父类和接口）按类缓存在 {@link ClassValue} 中，
+ * logger 名称的匹配结果按名称缓存，路由时只需合并 cause 链上各异常类的位掩码
+ *
+ * @author muyuanjin
+ */
+public class NoisePolicyTable {
+    /**
+     * 位掩码最多表示的规则数量
+     */
+    public static final int MAX_RULES = Long.SIZE;
+    private static final int MAX_CAUSE_DEPTH = 32;
+    private static final int LOGGER_CACHE_SIZE = 4096;
+    private final List<NoisePolicyRule> rules;
+    private final StackLineSkipPredicate[] predicates;
+    private final Map<String, Long> exceptionMasks = new HashMap<>();
+    private final Map<String, Long> loggerMasks = new HashMap<>();
+    /**
+     * 未配置异常类型（匹配所有异常）的规则
+     */
+    private final long anyException;
+    /**
+     * 未配置 logger（匹配所有 logger）的规则
+     */
+    private final long anyLogger;
+    private final ClassValue<Long> classMasks;
+    private final Cache<String, Long> loggerNameMasks = Caffeine.newBuilder().maximumSize(LOGGER_CACHE_SIZE).build();
+
+    /**
+     * @param predicates 与 rules 一一对应，规则匹配时使用的谓词
+     */
+    public NoisePolicyTable(List<NoisePolicyRule> rules, List<? extends StackLineSkipPredicate> predicates) {
+        Assert.isTrue(rules.size() == predicates.size(), "rules and predicates must have the same size");
+        Assert.isTrue(rules.size() <= MAX_RULES, "at most " + MAX_RULES + " rules are supported");
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+        this.predicates = predicates.toArray(new StackLineSkipPredicate[0]);
+        long anyException = 0;
+        long anyLogger = 0;
+        for (int i = 0; i < rules.size(); i++) {
+            long bit = 1L << i;
+            NoisePolicyRule rule = rules.get(i);
+            if (rule.getExceptions().isEmpty()) {
+                anyException |= bit;
+            }
+            for (String exception : rule.getExceptions()) {
+                exceptionMasks.merge(exception, bit, (a, b) -> a | b);
+            }
+            if (rule.getLoggers().isEmpty()) {
+                anyLogger |= bit;
+            }
+            for (String logger : rule.getLoggers()) {
+                loggerMasks.merge(logger, bit, (a, b) -> a | b);
+            }
+        }
+        this.anyException = anyException;
+        this.anyLogger = anyLogger;
+        this.classMasks = new ClassMasks(exceptionMasks);
+    }
+
+    public List<NoisePolicyRule> getRules() {
+        return rules;
+    }
+
+    public List<StackLineSkipPredicate> getPredicates() {
+        return Collections.unmodifiableList(Arrays.asList(predicates));
+    }
+
+    /**
+     * 与 rule 相同的规则对应的谓词，用于配置刷新时保留已记录的堆栈，没有时返回null
+     */
+    @Nullable
+    public StackLineSkipPredicate getPredicate(NoisePolicyRule rule) {
+        int index = rules.indexOf(rule);
+        return index < 0 ? null : predicates[index];
+    }
+
+    /**
+     * 按原始异常对象路由，匹配异常类的父类和接口
+     */
+    public StackLineSkipPredicate route(@Nullable String loggerName, Throwable throwable, StackLineSkipPredicate defaultPredicate) {
+        long candidates = loggerMask(loggerName);
+        if ((candidates & ~anyException) != 0) {
+            candidates &= anyException | exceptionMask(throwable);
+        } else {
+            candidates &= anyException;
+        }
+        return candidates == 0 ? defaultPredicate : predicates[Long.numberOfTrailingZeros(candidates)];
+    }
+
+    /**
+     * 按 ThrowableProxy 路由，无法获取原始异常（如反序列化的事件）时只按类名精确匹配
+     */
+    public StackLineSkipPredicate route(@Nullable String loggerName, IThrowableProxy throwableProxy, StackLineSkipPredicate defaultPredicate) {
+        if (throwableProxy instanceof ThrowableProxy) {
+            return route(loggerName, ((ThrowableProxy) throwableProxy).getThrowable(), defaultPredicate);
+        }
+        long candidates = loggerMask(loggerName);
+        if ((candidates & ~anyException) != 0) {
+            long mask = 0;
+            IThrowableProxy current = throwableProxy;
+            for (int depth = 0; current != null && depth < MAX_CAUSE_DEPTH; depth++) {
+                mask |= exceptionMasks.getOrDefault(current.getClassName(), 0L);
+                current = current.getCause();
+            }
+            candidates &= anyException | mask;
+        } else {
+            candidates &= anyException;
+        }
+        return candidates == 0 ? defaultPredicate : predicates[Long.numberOfTrailingZeros(candidates)];
+    }
+
+    private long exceptionMask(Throwable throwable) {
+        long mask = 0;
+        Throwable current = throwable;
+        for (int depth = 0; current != null && depth < MAX_CAUSE_DEPTH; depth++) {
+            mask |= classMasks.get(current.getClass());
+            Throwable cause = current.getCause();
+            current = cause == current ? null : cause;
+        }
+        return mask;
+    }
+
+    private long loggerMask(@Nullable String loggerName) {
+        if (loggerName == null || loggerMasks.isEmpty()) {
+            return anyLogger;
+        }
+        Long mask = loggerNameMasks.getIfPresent(loggerName);
+        if (mask == null) {
+            mask = computeLoggerMask(loggerName);
+            loggerNameMasks.put(loggerName, mask);
+        }
+        return anyLogger | mask;
+    }
+
+    /**
+     * 与 logback 的 logger 层级一致，依次匹配名称本身和以 '.' 或 '$' 分隔的各级上级名称
+     */
+    private long computeLoggerMask(String loggerName) {
+        long mask = 0;
+        String current = loggerName;
+        while (true) {
+            Long bits = loggerMasks.get(current);
+            if (bits != null) {
+                mask |= bits;
+            }
+            int separator = Math.max(current.lastIndexOf('.'), current.lastIndexOf('$'));
+            if (separator <= 0) {
+                return mask;
+            }
+            current = current.substring(0, separator);
+        }
+    }
+
+    /**
+     * 按类名匹配，不加载配置的异常类，父类和接口的结果同样被缓存
+     */
+    private static final class ClassMasks extends ClassValue<Long> {
+        private final Map<String, Long> exceptionMasks;
+
+        private ClassMasks(Map<String, Long> exceptionMasks) {
+            this.exceptionMasks = exceptionMasks;
+        }
+
+        @Override
+        protected Long computeValue(Class<?> type) {
+            long mask = exceptionMasks.getOrDefault(type.getName(), 0L);
+            Class<?> superclass = type.getSuperclass();
+            if (superclass != null && superclass != Object.class) {
+                mask |= get(superclass);
+            }
+            for (Class<?> anInterface : type.getInterfaces()) {
+                mask |= get(anInterface);
+            }
+            return mask;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.muyuanjin.lognoiseless.internal;
+
+import org.jetbrains.annotations.Nullable;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * 堆栈行包名前缀匹配器，将配置的多个包名一次性编译为前缀树，匹配时只需遍历一次堆栈行且不产生任何对象分配
+ * <p>
+ * 含有 {@code *} 或 {@code ?} 的配置项视为通配符，{@code *} 匹配任意多个字符，{@code ?} 匹配单个字符，所有通配符合并为一个正则表达式
+ *
+ * @author muyuanjin
+ */
+final class PackagePrefixMatcher {
+    private static final String LINE_PREFIX = "at ";
+    private final Node root;
+    @Nullable
+    private final Pattern globPattern;
+
+    private PackagePrefixMatcher(Node root, @Nullable Pattern globPattern) {
+        this.root = root;
+        this.globPattern = globPattern;
+    }
+
+    /**
+     * @param property 以逗号分隔的包名前缀
+     */
+    static PackagePrefixMatcher compile(String property) {
+        String[] strings = StringUtils.commaDelimitedListToStringArray(property);
+        NodeBuilder rootBuilder = new NodeBuilder();
+        List<String> globs = new ArrayList<>();
+        Arrays.stream(strings).distinct().filter(StringUtils::hasText).forEach(s -> {
+            if (s.indexOf('*') >= 0 || s.indexOf('?') >= 0) {
+                globs.add(globToRegex(s));
+            } else {
+                rootBuilder.add(s);
+            }
+        });
+        Pattern globPattern = globs.isEmpty() ? null : Pattern.compile(Pattern.quote(LINE_PREFIX) + "(?:" + String.join("|", globs) + ")");
+        return new PackagePrefixMatcher(rootBuilder.build(), globPattern);
+    }
+
+    /**
+     * 堆栈行是否以 "at " + 任一配置的前缀开头
+     */
+    boolean matches(String line) {
+        if (!line.startsWith(LINE_PREFIX)) {
+            return false;
+        }
+        Node node = root;
+        int length = line.length();
+        for (int i = LINE_PREFIX.length(); ; i++) {
+            if (node.terminal) {
+                return true;
+            }
+            if (i >= length || (node = node.child(line.charAt(i))) == null) {
+                break;
+            }
+        }
+        return globPattern != null && globPattern.matcher(line).lookingAt();
+    }
+
+    private static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > start) {
+                    regex.append(Pattern.quote(glob.substring(start, i)));
+                }
+                regex.append(c == '*' ? ".*" : ".");
+                start = i + 1;
+            }
+        }
+        if (start < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(start)));
+        }
+        return regex.toString();
+    }
+
+    private static final class Node {
+        private final char[] chars;
+        private final Node[] children;
+        private final boolean terminal;
+
+        private Node(char[] chars, Node[] children, boolean terminal) {
+            this.chars = chars;
+            this.children = children;
+            this.terminal = terminal;
+        }
+
+        @Nullable
+        private Node child(char c) {
+            //子节点按字符有序排列，包名前缀的分叉很少，线性查找即可
+            char[] chars = this.chars;
+            for (int i = 0; i < chars.length; i++) {
+                if (chars[i] == c) {
+                    return children[i];
+                }
+                if (chars[i] > c) {
+                    return null;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class NodeBuilder {
+        private final Map<Character, NodeBuilder> children = new TreeMap<>();
+        private boolean terminal;
+
+        private void add(String prefix) {
+            NodeBuilder node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.children.computeIfAbsent(prefix.charAt(i), k -> new NodeBuilder());
+            }
+            node.terminal = true;
+        }
+
+        private Node build() {
+            //已是终止节点时更长的前缀不会再被用到，直接剪枝
+            if (terminal) {
+                return new Node(new char[0], new Node[0], true);
+            }
+            char[] chars = new char[children.size()];
+            Node[] nodes = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, NodeBuilder> entry : children.entrySet()) {
+                chars[i] = entry.getKey();
+                nodes[i++] = entry.getValue().build();
+            }
+            return new Node(chars, nodes, false);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.muyuanjin.lognoiseless.internal;
+
+import com.muyuanjin.lognoiseless.util.CoarseClock;
+import org.springframework.util.Assert;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 全局的堆栈渲染字符预算，令牌桶按每秒允许的字符数匀速补充，最多积攒一秒的量
+ * <p>
+ * 每次渲染前按剩余令牌选择降级级别，渲染后扣除实际输出的字符数。大量不同的异常同时出现时重复堆栈过滤器无法压缩，
+ * 令牌逐渐耗尽，依次降级为跳过堆栈帧、只打印前几帧、只打印首行，限制事故期间的磁盘写入和日志采集带宽。
+ * 令牌最多透支一秒的量，透支后需要等待补充才能恢复
+ *
+ * @author muyuanjin
+ */
+public final class RenderBudget {
+    private final long charsPerSecond;
+    private final int topFrames;
+    private final AtomicLong tokens;
+    private final AtomicLong lastRefillTime;
+
+    /**
+     * @param charsPerSecond 每秒允许渲染的字符数
+     * @param topFrames      {@link Level#TOP_FRAMES} 级别下每个异常打印的堆栈帧数
+     */
+    public RenderBudget(long charsPerSecond, int topFrames) {
+        Assert.isTrue(charsPerSecond > 0, "charsPerSecond must be greater than 0");
+        Assert.isTrue(topFrames > 0, "topFrames must be greater than 0");
+        this.charsPerSecond = charsPerSecond;
+        this.topFrames = topFrames;
+        this.tokens = new AtomicLong(charsPerSecond);
+        this.lastRefillTime = new AtomicLong(CoarseClock.currentTimeMillis());
+    }
+
+    /**
+     * 按剩余令牌选择本次渲染的级别：一半以上时不降级，四分之一以上时跳过堆栈帧，还有剩余时只打印前几帧，否则只打印首行
+     */
+    public Level acquire() {
+        refill();
+        long available = tokens.get();
+        if (available > charsPerSecond / 2) {
+            return Level.NONE;
+        }
+        if (available > charsPerSecond / 4) {
+            return Level.SKIP_FRAMES;
+        }
+        return available > 0 ? Level.TOP_FRAMES : Level.FIRST_LINE;
+    }
+
+    /**
+     * 扣除实际渲染的字符数
+     */
+    public void consume(int chars) {
+        long floor = -charsPerSecond;
+        tokens.accumulateAndGet(chars, (current, used) -> Math.max(floor, current - used));
+    }
+
+    public long getCharsPerSecond() {
+        return charsPerSecond;
+    }
+
+    public int getTopFrames() {
+        return topFrames;
+    }
+
+    /**
+     * 当前剩余的令牌数，透支时为负数
+     */
+    public long getAvailable() {
+        return tokens.get();
+    }
+
+    private void refill() {
+        long now = CoarseClock.currentTimeMillis();
+        long last = lastRefillTime.get();
+        long elapsed = now - last;
+        //时钟精度为 CoarseClock.TICK_MILLIS，同一刻度内只补充一次
+        if (elapsed <= 0 || !lastRefillTime.compareAndSet(last, now)) {
+            return;
+        }
+        //透支最多一秒的量，两秒足以补满
+        long amount = elapsed >= 2000 ? charsPerSecond * 2 : (long) (charsPerSecond * (elapsed / 1000.0));
+        long capacity = charsPerSecond;
+        tokens.accumulateAndGet(amount, (current, added) -> Math.min(capacity, current + added));
+    }
+
+    /**
+     * 渲染降级级别
+     */
+    public enum Level {
+        /**
+         * 按原配置渲染
+         */
+        NONE,
+        /**
+         * 强制启用堆栈行跳过
+         */
+        SKIP_FRAMES,
+        /**
+         * 每个异常只打印跳过后的前几帧
+         */
+        TOP_FRAMES,
+        /**
+         * 只打印异常链中每个异常的首行（类名和消息）
+         */
+        FIRST_LINE
+    }
+}
@@ -0,0 +1,84 @@
+package com.muyuanjin.lognoiseless.internal;
+
+import lombok.experimental.UtilityClass;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 渲染异常堆栈使用的 StringBuilder 池，无锁且不依赖 ThreadLocal，虚拟线程下同样可以复用
+ * <p>
+ * 新建缓冲区的初始容量按最近渲染长度的指数移动平均向上取整到 2 的幂，容量远大于平均长度或超过上限的缓冲区归还时直接丢弃，
+ * 避免偶发的超长堆栈长期占用内存
+ *
+ * @author muyuanjin
+ */
+@UtilityClass
+public class RenderBuffers {
+    private static final int MIN_CAPACITY = 256;
+    private static final int INITIAL_CAPACITY = 2048;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    /**
+     * 容量超过当前尺寸的该倍数时视为过大
+     */
+    private static final int TRIM_FACTOR = 4;
+    private static final int SLOTS = Integer.highestOneBit(Math.min(64, Math.max(2, Runtime.getRuntime().availableProcessors() * 2)));
+    private static final int MASK = SLOTS - 1;
+    private static final AtomicReferenceArray<StringBuilder> POOL = new AtomicReferenceArray<>(SLOTS);
+    /**
+     * 渲染长度的指数移动平均（权重 1/8），并发更新时丢失个别样本不影响估算
+     */
+    private static volatile int averageLength = INITIAL_CAPACITY / 2;
+
+    /**
+     * 取出一个空的缓冲区，用完后通过 {@link #release} 归还
+     */
+    public static StringBuilder acquire() {
+        int start = probe();
+        for (int i = 0; i < SLOTS; i++) {
+            int index = (start + i) & MASK;
+            StringBuilder sb = POOL.get(index);
+            if (sb != null && POOL.compareAndSet(index, sb, null)) {
+                return sb;
+            }
+        }
+        return new StringBuilder(getSizeClass());
+    }
+
+    /**
+     * 记录本次渲染长度并归还缓冲区，归还后不能再使用
+     */
+    public static void release(StringBuilder sb) {
+        int length = sb.length();
+        int average = averageLength;
+        averageLength = average + ((length - average) >> 3);
+        int capacity = sb.capacity();
+        if (capacity > MAX_RETAINED_CAPACITY || capacity > getSizeClass() * TRIM_FACTOR) {
+            return;
+        }
+        sb.setLength(0);
+        int start = probe();
+        for (int i = 0; i < SLOTS; i++) {
+            int index = (start + i) & MASK;
+            if (POOL.get(index) == null && POOL.compareAndSet(index, null, sb)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 新建缓冲区的初始容量，平均长度的 1.25 倍向上取整到 2 的幂
+     */
+    public static int getSizeClass() {
+        int average = averageLength;
+        int wanted = Math.max(MIN_CAPACITY, average + (average >> 2));
+        return Math.min(MAX_RETAINED_CAPACITY, Integer.highestOneBit(wanted - 1) << 1);
+    }
+
+    /**
+     * 不同线程从不同的槽位开始查找，减少竞争
+     */
+    private static int probe() {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 16)) & MASK;
+    }
+}
@@ -0,0 +1,53 @@
+package com.muyuanjin.lognoiseless.internal;
+
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.muyuanjin.lognoiseless.util.LazyReference;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * 异常堆栈渲染结果缓存，同一个日志事件会被每个 appender 各自的转换器渲染一次，按异常对象（弱引用，按身份比较）和转换器选项缓存渲染结果，
+ * 使多个 appender 只需渲染一次
+ *
+ * @author muyuanjin
+ */
+final class RenderedThrowableCache {
+    private static final int MAXIMUM_SIZE = 1024;
+    private static final LazyReference<Cache<IThrowableProxy, Entry>> CACHE = new LazyReference<>(() -> Caffeine.newBuilder().weakKeys().maximumSize(MAXIMUM_SIZE).build());
+
+    private RenderedThrowableCache() {
+    }
+
+    /**
+     * @param renderKey 转换器选项，必须是 {@link String#intern()} 后的字符串
+     */
+    @Nullable
+    static String get(IThrowableProxy tp, String renderKey) {
+        for (Entry entry = CACHE.get().getIfPresent(tp); entry != null; entry = entry.next) {
+            //noinspection StringEquality
+            if (entry.renderKey == renderKey) {
+                return entry.rendered;
+            }
+        }
+        return null;
+    }
+
+    static void put(IThrowableProxy tp, String renderKey, String rendered) {
+        //同一事件的不同选项极少，使用不可变链表即可
+        CACHE.get().asMap().merge(tp, new Entry(renderKey, rendered, null), (old, entry) -> new Entry(renderKey, rendered, old));
+    }
+
+    private static final class Entry {
+        private final String renderKey;
+        private final String rendered;
+        @Nullable
+        private final Entry next;
+
+        private Entry(String renderKey, String rendered, @Nullable Entry next) {
+            this.renderKey = renderKey;
+            this.rendered = rendered;
+            this.next = next;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.muyuanjin.lognoiseless.internal;
+
+import com.google.common.hash.BloomFilter;
+import org.springframework.util.Assert;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.hash.Funnels.longFunnel;
+
+/**
+ * 可自动扩容的布隆过滤器（Scalable Bloom Filter），当前分片的插入数达到容量后追加一个容量翻倍、误判率减半的新分片，
+ * 所有分片的误判率之和不超过初始误判率的两倍
+ * <p>
+ * 达到内存上限后不再扩容也不再写入，新元素都会被视为不存在，避免误判率不断升高导致首次出现的元素被误判为已存在
+ *
+ * @author muyuanjin
+ */
+@SuppressWarnings("UnstableApiUsage")
+final class ScalableBloomFilter {
+    private static final int GROWTH_FACTOR = 2;
+    private static final double TIGHTENING_RATIO = 0.5;
+    /**
+     * 读取快照时允许的最大分片数，容量每次翻倍，正常情况下远达不到
+     */
+    private static final int MAX_SLICES = 48;
+    private final long maxMemoryBytes;
+    /**
+     * 整体替换保证扩容的原子性，只有最后一个分片会被写入
+     */
+    private volatile Slice[] slices;
+    /**
+     * 已达到内存上限，不再写入
+     */
+    private volatile boolean saturated;
+
+    /**
+     * @param initialCapacity 第一个分片的容量
+     * @param fpp             第一个分片的误判率
+     * @param maxMemoryBytes  所有分片占用内存的上限，至少会创建第一个分片
+     */
+    ScalableBloomFilter(long initialCapacity, double fpp, long maxMemoryBytes) {
+        Assert.isTrue(initialCapacity > 0, "initialCapacity must be greater than 0");
+        Assert.isTrue(fpp > 0 && fpp < 1, "fpp must be between 0 and 1");
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.slices = new Slice[]{new Slice(initialCapacity, fpp)};
+    }
+
+    private ScalableBloomFilter(long maxMemoryBytes, Slice[] slices, boolean saturated) {
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.slices = slices;
+        this.saturated = saturated;
+    }
+
+    /**
+     * 写入一个元素
+     *
+     * @return 元素之前一定不存在时返回 true，可能已存在时返回 false
+     */
+    boolean put(long item) {
+        Slice[] slices = this.slices;
+        int last = slices.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (slices[i].filter.mightContain(item)) {
+                return false;
+            }
+        }
+        Slice current = slices[last];
+        if (saturated) {
+            return !current.filter.mightContain(item);
+        }
+        if (!current.filter.put(item)) {
+            return false;
+        }
+        if (current.insertions.incrementAndGet() == current.capacity) {
+            grow(slices);
+        }
+        return true;
+    }
+
+    boolean mightContain(long item) {
+        for (Slice slice : slices) {
+            if (slice.filter.mightContain(item)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void grow(Slice[] expected) {
+        if (this.slices != expected) {
+            return;
+        }
+        Slice last = expected[expected.length - 1];
+        long capacity = last.capacity * GROWTH_FACTOR;
+        double fpp = last.fpp * TIGHTENING_RATIO;
+        if (getMemoryBytes(expected) + estimateBytes(capacity, fpp) > maxMemoryBytes) {
+            saturated = true;
+            return;
+        }
+        Slice[] slices = new Slice[expected.length + 1];
+        System.arraycopy(expected, 0, slices, 0, expected.length);
+        slices[expected.length] = new Slice(capacity, fpp);
+        this.slices = slices;
+    }
+
+    /**
+     * 插入数与总容量之比
+     */
+    double getFillRatio() {
+        long insertions = 0;
+        long capacity = 0;
+        for (Slice slice : slices) {
+            insertions += slice.insertions.get();
+            capacity += slice.capacity;
+        }
+        return (double) insertions / capacity;
+    }
+
+    /**
+     * 任意一个分片误判都会导致误判
+     */
+    double getFalsePositiveProbability() {
+        double probability = 1;
+        for (Slice slice : slices) {
+            probability *= 1 - slice.filter.expectedFpp();
+        }
+        return 1 - probability;
+    }
+
+    long getMemoryBytes() {
+        return getMemoryBytes(slices);
+    }
+
+    private static long getMemoryBytes(Slice[] slices) {
+        long bytes = 0;
+        for (Slice slice : slices) {
+            bytes += slice.bytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * 写入所有分片的参数、插入数和位数组，写入时仍可能有并发写入，快照中的位数组不一定是同一时刻的
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        Slice[] slices = this.slices;
+        out.writeBoolean(saturated);
+        out.writeInt(slices.length);
+        for (Slice slice : slices) {
+            out.writeLong(slice.capacity);
+            out.writeDouble(slice.fpp);
+            out.writeLong(slice.insertions.get());
+            slice.filter.writeTo(out);
+        }
+    }
+
+    /**
+     * 读取 {@link #writeTo} 写入的过滤器
+     */
+    static ScalableBloomFilter readFrom(DataInputStream in, long maxMemoryBytes) throws IOException {
+        boolean saturated = in.readBoolean();
+        int length = in.readInt();
+        if (length <= 0 || length > MAX_SLICES) {
+            throw new IOException("Invalid bloom filter slice count: " + length);
+        }
+        Slice[] slices = new Slice[length];
+        for (int i = 0; i < length; i++) {
+            long capacity = in.readLong();
+            double fpp = in.readDouble();
+            long insertions = in.readLong();
+            if (capacity <= 0 || !(fpp > 0 && fpp < 1) || insertions < 0) {
+                throw new IOException("Invalid bloom filter slice: capacity=" + capacity + ", fpp=" + fpp);
+            }
+            slices[i] = new Slice(BloomFilter.readFrom(in, longFunnel()), capacity, fpp, insertions);
+        }
+        return new ScalableBloomFilter(maxMemoryBytes, slices, saturated);
+    }
+
+    /**
+     * 与 Guava 相同的最优位数公式，按 long 数组对齐
+     */
+    private static long estimateBytes(long capacity, double fpp) {
+        long bits = (long) (-capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        return (bits + 63) / 64 * 8;
+    }
+
+    private static final class Slice {
+        private final BloomFilter<Long> filter;
+        private final long capacity;
+        private final double fpp;
+        private final long bytes;
+        private final AtomicLong insertions = new AtomicLong();
+
+        private Slice(long capacity, double fpp) {
+            this(BloomFilter.create(longFunnel(), capacity, fpp), capacity, fpp, 0);
+        }
+
+        private Slice(BloomFilter<Long> filter, long capacity, double fpp, long insertions) {
+            this.filter = filter;
+            this.capacity = capacity;
+            this.fpp = fpp;
+            this.bytes = estimateBytes(capacity, fpp);
+            this.insertions.set(insertions);
+        }
+    }
+}
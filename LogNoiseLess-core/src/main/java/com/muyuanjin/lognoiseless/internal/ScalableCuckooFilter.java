@@ -0,0 +1,148 @@
+package com.muyuanjin.lognoiseless.internal;
+
+import com.github.mgunlogson.cuckoofilter4j.CuckooFilter;
+import com.github.mgunlogson.cuckoofilter4j.Utils;
+import org.springframework.util.Assert;
+
+import static com.google.common.hash.Funnels.longFunnel;
+
+/**
+ * 可自动扩容的布谷鸟过滤器，当前分片的负载率达到上限或写入失败时追加一个容量翻倍、误判率减半的新分片，
+ * 同一元素在各分片中的计数之和即为其计数
+ * <p>
+ * 达到内存上限后不再扩容，无法写入的元素不会被记录
+ *
+ * @author muyuanjin
+ */
+@SuppressWarnings("UnstableApiUsage")
+final class ScalableCuckooFilter {
+    private static final int GROWTH_FACTOR = 2;
+    private static final double TIGHTENING_RATIO = 0.5;
+    /**
+     * 布谷鸟过滤器负载率超过 0.95 左右后写入很容易失败，提前扩容
+     */
+    private static final double MAX_LOAD_FACTOR = 0.9;
+    private final long maxMemoryBytes;
+    /**
+     * 整体替换保证扩容的原子性，只有最后一个分片会被写入
+     */
+    private volatile Slice[] slices;
+    /**
+     * 已达到内存上限，不再尝试扩容
+     */
+    private volatile boolean saturated;
+
+    /**
+     * @param initialCapacity 第一个分片的容量
+     * @param fpp             第一个分片的误判率
+     * @param maxMemoryBytes  所有分片占用内存的上限，至少会创建第一个分片
+     */
+    ScalableCuckooFilter(long initialCapacity, double fpp, long maxMemoryBytes) {
+        Assert.isTrue(initialCapacity > 0, "initialCapacity must be greater than 0");
+        Assert.isTrue(fpp > 0 && fpp < 1, "fpp must be between 0 and 1");
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.slices = new Slice[]{new Slice(initialCapacity, fpp)};
+    }
+
+    int approximateCount(long item) {
+        int count = 0;
+        for (Slice slice : slices) {
+            count += slice.filter.approximateCount(item);
+        }
+        return count;
+    }
+
+    /**
+     * 写入一个元素，计数加一
+     *
+     * @return 达到内存上限且写入失败时返回 false
+     */
+    boolean put(long item) {
+        Slice[] slices = this.slices;
+        Slice current = slices[slices.length - 1];
+        if ((saturated || current.filter.getLoadFactor() < MAX_LOAD_FACTOR) && current.filter.put(item)) {
+            return true;
+        }
+        if (saturated) {
+            return false;
+        }
+        slices = grow(slices);
+        return slices[slices.length - 1].filter.put(item);
+    }
+
+    private synchronized Slice[] grow(Slice[] expected) {
+        Slice[] slices = this.slices;
+        if (slices != expected) {
+            return slices;
+        }
+        Slice last = expected[expected.length - 1];
+        Slice slice;
+        try {
+            slice = new Slice(last.capacity * GROWTH_FACTOR, last.fpp * TIGHTENING_RATIO);
+        } catch (IllegalArgumentException e) {
+            //索引位数和指纹位数之和超过了哈希的长度，无法再扩容
+            saturated = true;
+            return expected;
+        }
+        if (getMemoryBytes(expected) + slice.bytes > maxMemoryBytes) {
+            saturated = true;
+            return expected;
+        }
+        slices = new Slice[expected.length + 1];
+        System.arraycopy(expected, 0, slices, 0, expected.length);
+        slices[expected.length] = slice;
+        return this.slices = slices;
+    }
+
+    /**
+     * 已使用的槽位与总槽位之比
+     */
+    double getFillRatio() {
+        long count = 0;
+        long capacity = 0;
+        for (Slice slice : slices) {
+            count += slice.filter.getCount();
+            capacity += slice.filter.getActualCapacity();
+        }
+        return (double) count / capacity;
+    }
+
+    /**
+     * 布谷鸟过滤器的误判率与负载率近似成正比，满载时为构建时指定的误判率，任意一个分片误判都会导致误判
+     */
+    double getFalsePositiveProbability() {
+        double probability = 1;
+        for (Slice slice : slices) {
+            probability *= 1 - slice.fpp * slice.filter.getLoadFactor();
+        }
+        return 1 - probability;
+    }
+
+    long getMemoryBytes() {
+        return getMemoryBytes(slices);
+    }
+
+    private static long getMemoryBytes(Slice[] slices) {
+        long bytes = 0;
+        for (Slice slice : slices) {
+            bytes += slice.bytes;
+        }
+        return bytes;
+    }
+
+    private static final class Slice {
+        private final CuckooFilter<Long> filter;
+        private final long capacity;
+        private final double fpp;
+        private final long bytes;
+
+        private Slice(long capacity, double fpp) {
+            this.filter = new CuckooFilter.Builder<>(longFunnel(), capacity)
+                    .withFalsePositiveRate(fpp).withHashAlgorithm(Utils.Algorithm.Murmur3_128).build();
+            this.capacity = capacity;
+            this.fpp = fpp;
+            //getStorageSize 为槽位的总位数
+            this.bytes = filter.getStorageSize() / 8;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.muyuanjin.lognoiseless.internal;
+
+import com.muyuanjin.lognoiseless.StackLineSkipPredicate;
+import org.springframework.util.Assert;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按指纹分片的无锁重复堆栈压缩过滤器，用于核数很多、异常集中爆发时的高并发场景
+ * <p>
+ * 指纹最低几位选择分片，接下来的位选择分片内 8 个槽位组成的探测窗口，高 32 位作为标签，每个槽位保存 32 位指纹标签、16 位周期序号和 16 位计数，
+ * 判断和计数通过对一个槽位的一次 CAS 完成。没有所有线程共享的计数器或重建时间，每个指纹的周期边界按标签错开，周期序号变化后旧计数自然失效；
+ * 同一堆栈在周期内超过最大数量后只读取槽位，不再写入，大量线程同时输出同一异常时不会争用同一缓存行的写权限
+ * <p>
+ * 与 {@link DuplicateFilterMode#SHARED_MMAP} 共用 {@link TaggedSlotTable} 的槽位格式和探测逻辑，但保存在堆内，不需要文件和 Unsafe
+ *
+ * @author muyuanjin
+ */
+public class ShardedThrowableDuplicateFilter extends AbstractThrowableDuplicateFilter {
+    private static final int MIN_SHARD_SLOTS = 64;
+    private static final int MAX_SLOTS = 1 << 27;
+    private static final int MAX_SHARDS = 1024;
+    private final int maxNumPerCycle;
+    private final long cycleMillis;
+    private final AtomicLongArray[] shards;
+    private final int shardBits;
+    private final int shardMask;
+    private final ShardedSlotTable table;
+
+    /**
+     * @param maxNumOfAllowedToPrintFullStackPerCycle 允许一个周期内打印全栈的最大数量，最大为 65535
+     * @param cycleDuration                           周期长度
+     * @param maxMemoryBytes                          所有分片占用内存的上限
+     * @param stackLineSkipPredicate                  周期内超过最大数量后的判断谓词
+     */
+    public ShardedThrowableDuplicateFilter(int maxNumOfAllowedToPrintFullStackPerCycle, Duration cycleDuration, long maxMemoryBytes,
+                                           StackLineSkipPredicate stackLineSkipPredicate) {
+        this(maxNumOfAllowedToPrintFullStackPerCycle, cycleDuration, maxMemoryBytes, defaultShards(), stackLineSkipPredicate);
+    }
+
+    /**
+     * @param shards 分片数，必须是 2 的幂
+     */
+    public ShardedThrowableDuplicateFilter(int maxNumOfAllowedToPrintFullStackPerCycle, Duration cycleDuration, long maxMemoryBytes, int shards,
+                                           StackLineSkipPredicate stackLineSkipPredicate) {
+        super(stackLineSkipPredicate);
+        Assert.notNull(cycleDuration, "cycleDuration can not be null");
+        Assert.isTrue(maxNumOfAllowedToPrintFullStackPerCycle > 0, "maxNumOfAllowedToPrintFullStackPerCycle must be greater than 0");
+        Assert.isTrue(cycleDuration.toMillis() > 0, "cycleDuration must be positive");
+        Assert.isTrue(maxMemoryBytes > 0, "maxMemoryBytes must be greater than 0");
+        Assert.isTrue(shards > 0 && shards <= MAX_SHARDS && Integer.bitCount(shards) == 1, "shards must be a power of 2 and not greater than " + MAX_SHARDS);
+        this.maxNumPerCycle = Math.min(TaggedSlotTable.MAX_COUNT, maxNumOfAllowedToPrintFullStackPerCycle);
+        this.cycleMillis = cycleDuration.toMillis();
+        long slots = Math.min(MAX_SLOTS, maxMemoryBytes / TaggedSlotTable.SLOT_BYTES);
+        int shardSlots = Integer.highestOneBit((int) Math.max(MIN_SHARD_SLOTS, slots / shards));
+        this.shards = new AtomicLongArray[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new AtomicLongArray(shardSlots);
+        }
+        this.shardBits = Integer.numberOfTrailingZeros(shards);
+        this.shardMask = shardSlots - 1;
+        this.table = new ShardedSlotTable(this.shards, shardSlots, cycleMillis);
+        table.scheduleSweep();
+    }
+
+    private ShardedThrowableDuplicateFilter(ShardedThrowableDuplicateFilter source, StackLineSkipPredicate stackLineSkipPredicate) {
+        super(stackLineSkipPredicate);
+        this.maxNumPerCycle = source.maxNumPerCycle;
+        this.cycleMillis = source.cycleMillis;
+        this.shards = source.shards;
+        this.shardBits = source.shardBits;
+        this.shardMask = source.shardMask;
+        this.table = source.table;
+    }
+
+    /**
+     * 分片数为 CPU 核数的 4 倍左右
+     */
+    private static int defaultShards() {
+        return Math.min(MAX_SHARDS, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 4));
+    }
+
+    @Override
+    public ShardedThrowableDuplicateFilter withPredicate(StackLineSkipPredicate stackLineSkipPredicate) {
+        return new ShardedThrowableDuplicateFilter(this, stackLineSkipPredicate);
+    }
+
+    @Override
+    protected boolean isFull(long fingerprint) {
+        int shard = (int) fingerprint & (shards.length - 1);
+        int window = (int) (fingerprint >>> shardBits) & shardMask & -TaggedSlotTable.PROBE_WINDOW;
+        return table.isFull(shard * (shardMask + 1) + window, fingerprint, maxNumPerCycle);
+    }
+
+    /**
+     * 分片数
+     */
+    public int getShards() {
+        return shards.length;
+    }
+
+    /**
+     * 所有分片的槽位数
+     */
+    public int getCapacity() {
+        return table.capacity();
+    }
+
+    /**
+     * 抽样估算本周期已使用的槽位比例
+     */
+    @Override
+    public double getFillRatio() {
+        return table.getFillRatio();
+    }
+
+    @Override
+    public double getFalsePositiveProbability() {
+        return TaggedSlotTable.getFalsePositiveProbability(getFillRatio());
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        return (long) getCapacity() * TaggedSlotTable.SLOT_BYTES;
+    }
+
+    /**
+     * 周期边界只由时间和标签决定，恢复后停机期间已结束的周期的计数自然失效
+     */
+    @Override
+    protected boolean writeState(DataOutputStream out) throws IOException {
+        out.writeLong(cycleMillis);
+        out.writeInt(shards.length);
+        out.writeInt(shardMask + 1);
+        for (AtomicLongArray shard : shards) {
+            for (int i = 0; i < shard.length(); i++) {
+                out.writeLong(shard.get(i));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 分片数与 CPU 核数有关，分片数或每个分片的槽位数不同时无法恢复
+     */
+    @Override
+    protected boolean readState(DataInputStream in) throws IOException {
+        if (in.readLong() != cycleMillis || in.readInt() != shards.length || in.readInt() != shardMask + 1) {
+            return false;
+        }
+        long[][] saved = new long[shards.length][shardMask + 1];
+        for (long[] values : saved) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = in.readLong();
+            }
+        }
+        for (int s = 0; s < shards.length; s++) {
+            for (int i = 0; i < saved[s].length; i++) {
+                shards[s].set(i, saved[s][i]);
+            }
+        }
+        //停机时间可能超过周期序号回绕的时间
+        table.sweep();
+        return true;
+    }
+
+    /**
+     * 槽位下标的高位选择分片，低位为分片内的下标
+     */
+    private static final class ShardedSlotTable extends TaggedSlotTable {
+        private final AtomicLongArray[] shards;
+        private final int shardSlotBits;
+        private final int shardMask;
+
+        private ShardedSlotTable(AtomicLongArray[] shards, int shardSlots, long cycleMillis) {
+            super(cycleMillis);
+            this.shards = shards;
+            this.shardSlotBits = Integer.numberOfTrailingZeros(shardSlots);
+            this.shardMask = shardSlots - 1;
+        }
+
+        @Override
+        int capacity() {
+            return shards.length << shardSlotBits;
+        }
+
+        @Override
+        long get(int index) {
+            return shards[index >>> shardSlotBits].get(index & shardMask);
+        }
+
+        @Override
+        boolean compareAndSet(int index, long expected, long value) {
+            return shards[index >>> shardSlotBits].compareAndSet(index & shardMask, expected, value);
+        }
+    }
+}
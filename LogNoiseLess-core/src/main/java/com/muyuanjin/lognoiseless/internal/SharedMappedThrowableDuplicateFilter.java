@@ -0,0 +1,336 @@
+package com.muyuanjin.lognoiseless.internal;
+
+import com.muyuanjin.lognoiseless.StackLineSkipPredicate;
+import lombok.SneakyThrows;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+
+/**
+ * 基于内存映射文件的重复堆栈压缩过滤器，同一台机器上映射同一文件的多个进程共享计数，任意一个进程打印过全栈后其他进程同样计入
+ * <p>
+ * 文件由 64 字节的头部和若干 8 字节的槽位组成，槽位格式和探测逻辑见 {@link TaggedSlotTable}，只通过 CAS 整体更新，
+ * 热路径上没有锁，进程在任意时刻崩溃都不会留下写了一半的槽位。周期边界只由时间和标签决定，所有进程对同一堆栈的周期边界相同，周期序号变化后旧计数自然失效
+ * <p>
+ * 打开文件时持有文件锁检查头部，魔数、版本或状态不正确（文件损坏、初始化过程中崩溃或其他版本创建）时重新初始化；
+ * 已经初始化的文件沿用文件中的槽位数，不会截断其他进程正在使用的映射。头部同时记录周期内最大数量、周期长度和指纹计算方式，
+ * 与当前配置不一致时计数的含义不同，拒绝共享（抛出 {@link IOException}），不会重新初始化其他进程正在使用的文件
+ * <p>
+ * 映射内存上的 volatile 读和 CAS 通过 sun.misc.Unsafe 完成，只按名称查找，经 {@link MethodHandle} 调用，编译时不依赖内部 API
+ *
+ * @author muyuanjin
+ */
+public class SharedMappedThrowableDuplicateFilter extends AbstractThrowableDuplicateFilter {
+    /**
+     * "LNLSDUP1"
+     */
+    private static final long MAGIC = 0x4C4E4C5344555031L;
+    private static final int VERSION = 4;
+    private static final int STATE_READY = 1;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 8;
+    private static final int SLOTS_OFFSET = 12;
+    private static final int STATE_OFFSET = 16;
+    private static final int MAX_COUNT_OFFSET = 20;
+    private static final int CYCLE_MILLIS_OFFSET = 24;
+    private static final int FINGERPRINT_OFFSET = 32;
+    private static final int FINGERPRINT_TOP_FRAMES_OFFSET = 36;
+    private static final int HEADER_BYTES = 64;
+    private static final int SLOT_BYTES = TaggedSlotTable.SLOT_BYTES;
+    private static final int MIN_SLOTS = 1024;
+    private static final int MAX_SLOTS = 1 << 27;
+    /**
+     * Unsafe.getLong(Object, long)，只在创建时读取映射地址，为 null 时不支持
+     */
+    @Nullable
+    private static final MethodHandle GET_LONG;
+    /**
+     * Unsafe.getLongVolatile(Object, long)
+     */
+    @Nullable
+    private static final MethodHandle GET_LONG_VOLATILE;
+    /**
+     * Unsafe.compareAndSwapLong(Object, long, long, long)
+     */
+    @Nullable
+    private static final MethodHandle COMPARE_AND_SWAP_LONG;
+    private static final long ADDRESS_OFFSET;
+
+    static {
+        MethodHandle getLong = null;
+        MethodHandle getLongVolatile = null;
+        MethodHandle compareAndSwapLong = null;
+        long addressOffset = -1;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            addressOffset = (long) unsafeClass.getMethod("objectFieldOffset", Field.class).invoke(unsafe, Buffer.class.getDeclaredField("address"));
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodType get = MethodType.methodType(long.class, Object.class, long.class);
+            getLong = lookup.findVirtual(unsafeClass, "getLong", get).bindTo(unsafe);
+            getLongVolatile = lookup.findVirtual(unsafeClass, "getLongVolatile", get).bindTo(unsafe);
+            compareAndSwapLong = lookup.findVirtual(unsafeClass, "compareAndSwapLong",
+                    MethodType.methodType(boolean.class, Object.class, long.class, long.class, long.class)).bindTo(unsafe);
+        } catch (Throwable e) {
+            getLong = null;
+        }
+        GET_LONG = getLong;
+        GET_LONG_VOLATILE = getLongVolatile;
+        COMPARE_AND_SWAP_LONG = compareAndSwapLong;
+        ADDRESS_OFFSET = addressOffset;
+    }
+
+    private final Path path;
+    private final int maxNumPerCycle;
+    private final long cycleMillis;
+    private final FingerprintStrategy fingerprintStrategy;
+    private final int fingerprintTopFrames;
+    /**
+     * 持有映射的引用，避免被回收后解除映射
+     */
+    private final MappedByteBuffer buffer;
+    private final int slots;
+    private final MappedSlotTable table;
+
+    /**
+     * @param path                                    共享的映射文件，不存在时创建
+     * @param maxNumOfAllowedToPrintFullStackPerCycle 允许一个周期内打印全栈的最大数量，最大为 65535
+     * @param cycleDuration                           周期长度
+     * @param maxMemoryBytes                          新建文件时的大小，文件已存在时沿用文件中的槽位数
+     * @param stackLineSkipPredicate                  周期内超过最大数量后的判断谓词
+     * @throws IOException 无法创建或映射文件，或者文件由不同配置的进程创建
+     */
+    public SharedMappedThrowableDuplicateFilter(Path path, int maxNumOfAllowedToPrintFullStackPerCycle, Duration cycleDuration, long maxMemoryBytes,
+                                                StackLineSkipPredicate stackLineSkipPredicate) throws IOException {
+        this(path, maxNumOfAllowedToPrintFullStackPerCycle, cycleDuration, maxMemoryBytes, FingerprintStrategy.ALL_FRAMES, DEFAULT_FINGERPRINT_TOP_FRAMES,
+                stackLineSkipPredicate);
+    }
+
+    /**
+     * @param path                                    共享的映射文件，不存在时创建
+     * @param maxNumOfAllowedToPrintFullStackPerCycle 允许一个周期内打印全栈的最大数量，最大为 65535
+     * @param cycleDuration                           周期长度
+     * @param maxMemoryBytes                          新建文件时的大小，文件已存在时沿用文件中的槽位数
+     * @param fingerprintStrategy                     指纹计算方式，共享同一文件的进程必须一致
+     * @param fingerprintTopFrames                    只用于 {@link FingerprintStrategy#TOP_FRAMES}，每个异常参与计算的堆栈帧数
+     * @param stackLineSkipPredicate                  周期内超过最大数量后的判断谓词
+     * @throws IOException 无法创建或映射文件，或者文件由不同配置的进程创建
+     */
+    public SharedMappedThrowableDuplicateFilter(Path path, int maxNumOfAllowedToPrintFullStackPerCycle, Duration cycleDuration, long maxMemoryBytes,
+                                                FingerprintStrategy fingerprintStrategy, int fingerprintTopFrames,
+                                                StackLineSkipPredicate stackLineSkipPredicate) throws IOException {
+        super(stackLineSkipPredicate);
+        Assert.notNull(path, "path can not be null");
+        Assert.notNull(cycleDuration, "cycleDuration can not be null");
+        Assert.notNull(fingerprintStrategy, "fingerprintStrategy can not be null");
+        Assert.isTrue(maxNumOfAllowedToPrintFullStackPerCycle > 0, "maxNumOfAllowedToPrintFullStackPerCycle must be greater than 0");
+        Assert.isTrue(cycleDuration.toMillis() > 0, "cycleDuration must be positive");
+        Assert.state(isSupported(), "sun.misc.Unsafe is not available");
+        this.path = path;
+        this.maxNumPerCycle = Math.min(TaggedSlotTable.MAX_COUNT, maxNumOfAllowedToPrintFullStackPerCycle);
+        this.cycleMillis = cycleDuration.toMillis();
+        this.fingerprintStrategy = fingerprintStrategy;
+        this.fingerprintTopFrames = fingerprintStrategy == FingerprintStrategy.TOP_FRAMES ? fingerprintTopFrames : 0;
+        super.setFingerprintStrategy(fingerprintStrategy, Math.max(1, fingerprintTopFrames));
+        int requestedSlots = Integer.highestOneBit((int) Math.min(MAX_SLOTS, Math.max(MIN_SLOTS, maxMemoryBytes / SLOT_BYTES)));
+        try (FileChannel channel = open(path);
+             FileLock ignored = channel.lock()) {
+            int existingSlots = readSlots(channel);
+            this.slots = existingSlots > 0 ? existingSlots : requestedSlots;
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) slots * SLOT_BYTES);
+            if (existingSlots <= 0) {
+                initialize(buffer, slots);
+            } else {
+                checkSettings(buffer);
+            }
+        }
+        this.table = new MappedSlotTable(getLong(buffer, ADDRESS_OFFSET) + HEADER_BYTES, slots, cycleMillis);
+        //文件可能很久没有被使用，超过了周期序号回绕的时间
+        table.sweep();
+        table.scheduleSweep();
+    }
+
+    private SharedMappedThrowableDuplicateFilter(SharedMappedThrowableDuplicateFilter source, StackLineSkipPredicate stackLineSkipPredicate) {
+        super(stackLineSkipPredicate);
+        this.path = source.path;
+        this.maxNumPerCycle = source.maxNumPerCycle;
+        this.cycleMillis = source.cycleMillis;
+        this.fingerprintStrategy = source.fingerprintStrategy;
+        this.fingerprintTopFrames = source.fingerprintTopFrames;
+        super.setFingerprintStrategy(fingerprintStrategy, Math.max(1, fingerprintTopFrames));
+        this.buffer = source.buffer;
+        this.slots = source.slots;
+        this.table = source.table;
+    }
+
+    /**
+     * 当前 JVM 是否支持在映射内存上 CAS
+     */
+    public static boolean isSupported() {
+        return GET_LONG != null && ADDRESS_OFFSET >= 0;
+    }
+
+    @Override
+    public SharedMappedThrowableDuplicateFilter withPredicate(StackLineSkipPredicate stackLineSkipPredicate) {
+        return new SharedMappedThrowableDuplicateFilter(this, stackLineSkipPredicate);
+    }
+
+    /**
+     * 指纹计算方式记录在文件头部，只允许设置为创建时的值
+     */
+    @Override
+    public void setFingerprintStrategy(FingerprintStrategy fingerprintStrategy, int topFrames) {
+        Assert.isTrue(fingerprintStrategy == this.fingerprintStrategy
+                        && (fingerprintStrategy != FingerprintStrategy.TOP_FRAMES || topFrames == fingerprintTopFrames),
+                "fingerprintStrategy of a shared filter can not be changed");
+        super.setFingerprintStrategy(fingerprintStrategy, topFrames);
+    }
+
+    @Override
+    protected boolean isFull(long fingerprint) {
+        int window = (int) fingerprint & (slots - 1) & -TaggedSlotTable.PROBE_WINDOW;
+        return table.isFull(window, fingerprint, maxNumPerCycle);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * 文件中的槽位数
+     */
+    public int getCapacity() {
+        return slots;
+    }
+
+    /**
+     * 抽样估算本周期已使用的槽位比例
+     */
+    @Override
+    public double getFillRatio() {
+        return table.getFillRatio();
+    }
+
+    @Override
+    public double getFalsePositiveProbability() {
+        return TaggedSlotTable.getFalsePositiveProbability(getFillRatio());
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        return HEADER_BYTES + (long) slots * SLOT_BYTES;
+    }
+
+    @SneakyThrows
+    private static long getLong(Object object, long offset) {
+        return (long) GET_LONG.invokeExact(object, offset);
+    }
+
+    @SneakyThrows
+    private static long getLongVolatile(long address) {
+        return (long) GET_LONG_VOLATILE.invokeExact((Object) null, address);
+    }
+
+    @SneakyThrows
+    private static boolean compareAndSwapLong(long address, long expected, long value) {
+        return (boolean) COMPARE_AND_SWAP_LONG.invokeExact((Object) null, address, expected, value);
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * @return 已初始化的文件中的槽位数，需要重新初始化时返回 -1
+     */
+    private static int readSlots(FileChannel channel) throws IOException {
+        if (channel.size() < HEADER_BYTES) {
+            return -1;
+        }
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+        int slots = header.getInt(SLOTS_OFFSET);
+        boolean valid = header.getLong(MAGIC_OFFSET) == MAGIC
+                && header.getInt(VERSION_OFFSET) == VERSION
+                && header.getInt(STATE_OFFSET) == STATE_READY
+                && slots >= MIN_SLOTS && slots <= MAX_SLOTS && Integer.bitCount(slots) == 1
+                && channel.size() >= HEADER_BYTES + (long) slots * SLOT_BYTES;
+        return valid ? slots : -1;
+    }
+
+    /**
+     * 先清除魔数再清空槽位，最后写入配置、状态和魔数，中途崩溃时下次打开会重新初始化
+     */
+    private void initialize(MappedByteBuffer buffer, int slots) {
+        buffer.putLong(MAGIC_OFFSET, 0);
+        buffer.force();
+        for (int i = 0; i < slots; i++) {
+            buffer.putLong(HEADER_BYTES + i * SLOT_BYTES, 0);
+        }
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(SLOTS_OFFSET, slots);
+        buffer.putInt(MAX_COUNT_OFFSET, maxNumPerCycle);
+        buffer.putLong(CYCLE_MILLIS_OFFSET, cycleMillis);
+        buffer.putInt(FINGERPRINT_OFFSET, fingerprintStrategy.name().hashCode());
+        buffer.putInt(FINGERPRINT_TOP_FRAMES_OFFSET, fingerprintTopFrames);
+        buffer.putInt(STATE_OFFSET, STATE_READY);
+        buffer.force();
+        buffer.putLong(MAGIC_OFFSET, MAGIC);
+        buffer.force();
+    }
+
+    private void checkSettings(MappedByteBuffer buffer) throws IOException {
+        int maxCount = buffer.getInt(MAX_COUNT_OFFSET);
+        long millis = buffer.getLong(CYCLE_MILLIS_OFFSET);
+        if (maxCount != maxNumPerCycle || millis != cycleMillis
+                || buffer.getInt(FINGERPRINT_OFFSET) != fingerprintStrategy.name().hashCode()
+                || buffer.getInt(FINGERPRINT_TOP_FRAMES_OFFSET) != fingerprintTopFrames) {
+            throw new IOException("映射文件由不同配置的进程创建, 文件中 maxNumPerCycle:" + maxCount + ", cycleDuration:" + millis + "ms, 当前 maxNumPerCycle:"
+                    + maxNumPerCycle + ", cycleDuration:" + cycleMillis + "ms, fingerprint:" + fingerprintStrategy + ", 请删除该文件或使用其他路径");
+        }
+    }
+
+    private static final class MappedSlotTable extends TaggedSlotTable {
+        private final long address;
+        private final int slots;
+
+        private MappedSlotTable(long address, int slots, long cycleMillis) {
+            super(cycleMillis);
+            this.address = address;
+            this.slots = slots;
+        }
+
+        @Override
+        int capacity() {
+            return slots;
+        }
+
+        @Override
+        long get(int index) {
+            return getLongVolatile(address + (long) index * SLOT_BYTES);
+        }
+
+        @Override
+        boolean compareAndSet(int index, long expected, long value) {
+            return compareAndSwapLong(address + (long) index * SLOT_BYTES, expected, value);
+        }
+    }
+}
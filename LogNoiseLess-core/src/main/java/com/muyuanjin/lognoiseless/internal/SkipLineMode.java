@@ -5,58 +5,29 @@ import com.muyuanjin.lognoiseless.util.InstanceUtil;
 import lombok.SneakyThrows;
 import org.codehaus.janino.ExpressionEvaluator;
 import org.springframework.util.ClassUtils;
-import org.springframework.util.StringUtils;
-
-import java.util.Arrays;
-import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * 日志堆栈打印跳过行的模式
  */
 public enum SkipLineMode {
     /**
-     * 白名单默认
+     * 白名单模式，配置的包名前缀会被编译为前缀树，支持 * 和 ? 通配符
      */
     WHITELIST {
         @Override
         public StackLineSkipPredicate getStackLinePredicate(String property) {
-            return new StackLineSkipPredicate() {
-                private final String[] strings = StringUtils.commaDelimitedListToStringArray(property);
-                private final List<String> collect = Arrays.stream(strings).distinct().filter(StringUtils::hasText).collect(Collectors.toList());
-
-                @Override
-                public boolean isShouldSkipLine(String line) {
-                    for (String s : collect) {
-                        if (line.startsWith("at " + s)) {
-                            return false;
-                        }
-                    }
-                    return true;
-                }
-            };
+            PackagePrefixMatcher matcher = PackagePrefixMatcher.compile(property);
+            return line -> !matcher.matches(line);
         }
     },
     /**
-     * 黑名单模式
+     * 黑名单模式，配置的包名前缀会被编译为前缀树，支持 * 和 ? 通配符
      */
     BLACKLIST {
         @Override
         public StackLineSkipPredicate getStackLinePredicate(String property) {
-            return new StackLineSkipPredicate() {
-                private final String[] strings = StringUtils.commaDelimitedListToStringArray(property);
-                private final List<String> collect = Arrays.stream(strings).distinct().filter(StringUtils::hasText).collect(Collectors.toList());
-
-                @Override
-                public boolean isShouldSkipLine(String line) {
-                    for (String s : collect) {
-                        if (line.startsWith("at " + s)) {
-                            return true;
-                        }
-                    }
-                    return false;
-                }
-            };
+            PackagePrefixMatcher matcher = PackagePrefixMatcher.compile(property);
+            return matcher::matches;
         }
     },
 
@@ -83,6 +54,18 @@ public enum SkipLineMode {
                     InternalStackLinePredicate.class, // 描述表达式签名的接口
                     "line")::isShouldSkipLine;
         }
+    },
+    /**
+     * 使用 janino 表达式，以堆栈帧的 className、methodName、fileName、lineNumber、packageName 作为局部变量，无需解析堆栈行字符串，
+     * 如 "!packageName.startsWith(\"com.example\")"
+     * <p>
+     * 每行一个表达式，可以用 "名称: 表达式" 命名，任意表达式返回 true 时跳过该行，所有表达式编译到同一个类中
+     */
+    JANINO_FRAME_EXPRESSION {
+        @Override
+        public StackLineSkipPredicate getStackLinePredicate(String property) {
+            return JaninoFramePredicate.compile(property);
+        }
     };
 
     public abstract StackLineSkipPredicate getStackLinePredicate(String property);
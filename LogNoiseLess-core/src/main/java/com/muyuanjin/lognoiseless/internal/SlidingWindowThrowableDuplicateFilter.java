@@ -0,0 +1,252 @@
+package com.muyuanjin.lognoiseless.internal;
+
+import com.muyuanjin.lognoiseless.StackLineSkipPredicate;
+import com.muyuanjin.lognoiseless.util.CoarseClock;
+import org.springframework.util.Assert;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * 精确的滑动窗口重复堆栈压缩过滤器，任意一个周期时长的窗口内打印全栈的次数都不会超过最大数量
+ * <p>
+ * 使用开放寻址的哈希表保存 指纹 -> 最近若干次打印全栈的时间戳，表按指纹高位分段加锁。表满时只会淘汰旧条目，被淘汰的堆栈可能会提前再次打印全栈，
+ * 但从不会误跳过首次出现的堆栈
+ *
+ * @author muyuanjin
+ */
+public class SlidingWindowThrowableDuplicateFilter extends AbstractThrowableDuplicateFilter {
+    /**
+     * 查找和插入时最多探测的槽位数
+     */
+    private static final int MAX_PROBE = 8;
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+    private static final int SEGMENT_COUNT = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) * 2;
+    private final int maxNumPerCycle;
+    private final long windowMillis;
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    /**
+     * @param maxNumOfAllowedToPrintFullStackPerCycle 允许一个周期内打印全栈的最大数量
+     * @param cycleDuration                           周期长度，即滑动窗口的长度
+     * @param maxMemoryBytes                          哈希表占用内存的上限
+     * @param stackLineSkipPredicate                  周期内超过最大数量后的判断谓词
+     */
+    public SlidingWindowThrowableDuplicateFilter(int maxNumOfAllowedToPrintFullStackPerCycle, Duration cycleDuration, long maxMemoryBytes, StackLineSkipPredicate stackLineSkipPredicate) {
+        super(stackLineSkipPredicate);
+        Assert.notNull(cycleDuration, "cycleDuration can not be null");
+        Assert.isTrue(maxNumOfAllowedToPrintFullStackPerCycle > 0, "maxNumOfAllowedToPrintFullStackPerCycle must be greater than 0");
+        Assert.isTrue(maxMemoryBytes > 0, "maxMemoryBytes must be greater than 0");
+        this.maxNumPerCycle = maxNumOfAllowedToPrintFullStackPerCycle;
+        this.windowMillis = cycleDuration.toMillis();
+        //每个槽位: 指纹 8 字节 + 时间戳环 8 * maxNumPerCycle 字节 + 环的写入位置 4 字节
+        long slotBytes = 8L + 8L * maxNumPerCycle + 4L;
+        long segmentCapacity = Math.max(MIN_SEGMENT_CAPACITY, maxMemoryBytes / slotBytes / SEGMENT_COUNT);
+        int capacity = Integer.highestOneBit((int) Math.min(segmentCapacity, 1 << 24));
+        this.segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(capacity, maxNumPerCycle);
+        }
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(SEGMENT_COUNT);
+    }
+
+    private SlidingWindowThrowableDuplicateFilter(SlidingWindowThrowableDuplicateFilter source, StackLineSkipPredicate stackLineSkipPredicate) {
+        super(stackLineSkipPredicate);
+        this.maxNumPerCycle = source.maxNumPerCycle;
+        this.windowMillis = source.windowMillis;
+        this.segments = source.segments;
+        this.segmentShift = source.segmentShift;
+    }
+
+    @Override
+    public SlidingWindowThrowableDuplicateFilter withPredicate(StackLineSkipPredicate stackLineSkipPredicate) {
+        return new SlidingWindowThrowableDuplicateFilter(this, stackLineSkipPredicate);
+    }
+
+    @Override
+    protected boolean isFull(long fingerprint) {
+        //0 用来表示空槽位
+        long key = fingerprint == 0 ? 1 : fingerprint;
+        Segment segment = segments[(int) (key >>> segmentShift)];
+        synchronized (segment) {
+            return segment.isFull(key, CoarseClock.currentTimeMillis(), windowMillis, maxNumPerCycle);
+        }
+    }
+
+    /**
+     * 表中的槽位数
+     */
+    public int getCapacity() {
+        return segments.length * segments[0].keys.length;
+    }
+
+    @Override
+    public double getFillRatio() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return (double) size / getCapacity();
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        return (long) getCapacity() * (8L + 8L * maxNumPerCycle + 4L);
+    }
+
+    /**
+     * 精确计数，只有 64 位指纹碰撞时才会误判
+     */
+    @Override
+    public double getFalsePositiveProbability() {
+        return 0;
+    }
+
+    /**
+     * 时间戳是墙上时钟，恢复后停机期间已滑出窗口的记录自然失效
+     */
+    @Override
+    protected boolean writeState(DataOutputStream out) throws IOException {
+        out.writeInt(maxNumPerCycle);
+        out.writeLong(windowMillis);
+        out.writeInt(segments.length);
+        out.writeInt(segments[0].keys.length);
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.writeTo(out);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 分段数与 CPU 核数有关，分段数或每段容量不同时无法恢复
+     */
+    @Override
+    protected boolean readState(DataInputStream in) throws IOException {
+        if (in.readInt() != maxNumPerCycle || in.readLong() != windowMillis
+                || in.readInt() != segments.length || in.readInt() != segments[0].keys.length) {
+            return false;
+        }
+        Segment[] saved = new Segment[segments.length];
+        for (int i = 0; i < saved.length; i++) {
+            saved[i] = new Segment(segments[i].keys.length, maxNumPerCycle);
+            saved[i].readFrom(in);
+        }
+        for (int i = 0; i < saved.length; i++) {
+            Segment segment = segments[i];
+            synchronized (segment) {
+                segment.copyFrom(saved[i]);
+            }
+        }
+        return true;
+    }
+
+    private static final class Segment {
+        private final long[] keys;
+        /**
+         * 每个槽位 maxNumPerCycle 个时间戳组成的环，保存最近几次允许打印全栈的时间，0 表示未使用
+         */
+        private final long[] timestamps;
+        private final int[] heads;
+        private final int mask;
+        /**
+         * 已使用的槽位数，只在加锁时修改，读取时不要求精确
+         */
+        private volatile int size;
+
+        private Segment(int capacity, int maxNumPerCycle) {
+            this.keys = new long[capacity];
+            this.timestamps = new long[capacity * maxNumPerCycle];
+            this.heads = new int[capacity];
+            this.mask = capacity - 1;
+        }
+
+        private boolean isFull(long key, long now, long windowMillis, int maxNumPerCycle) {
+            int start = (int) (key ^ (key >>> 32)) & mask;
+            int victim = -1;
+            long victimNewest = Long.MAX_VALUE;
+            for (int i = 0; i < MAX_PROBE && i <= mask; i++) {
+                int slot = (start + i) & mask;
+                long current = keys[slot];
+                if (current == key) {
+                    return acquire(slot, now, windowMillis, maxNumPerCycle);
+                }
+                if (current == 0) {
+                    //从不删除条目，所以遇到空槽位说明表中没有该指纹
+                    victim = slot;
+                    break;
+                }
+                long newest = timestamps[slot * maxNumPerCycle + (heads[slot] + maxNumPerCycle - 1) % maxNumPerCycle];
+                if (newest < victimNewest) {
+                    victim = slot;
+                    victimNewest = newest;
+                }
+            }
+            //没有空槽位时淘汰最久没有打印过全栈的条目
+            if (keys[victim] == 0) {
+                size++;
+            }
+            keys[victim] = key;
+            heads[victim] = 0;
+            Arrays.fill(timestamps, victim * maxNumPerCycle, (victim + 1) * maxNumPerCycle, 0L);
+            return acquire(victim, now, windowMillis, maxNumPerCycle);
+        }
+
+        private void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(size);
+            for (long key : keys) {
+                out.writeLong(key);
+            }
+            for (long timestamp : timestamps) {
+                out.writeLong(timestamp);
+            }
+            for (int head : heads) {
+                out.writeInt(head);
+            }
+        }
+
+        private void readFrom(DataInputStream in) throws IOException {
+            int size = in.readInt();
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = in.readLong();
+            }
+            for (int i = 0; i < timestamps.length; i++) {
+                timestamps[i] = in.readLong();
+            }
+            int maxNumPerCycle = timestamps.length / keys.length;
+            for (int i = 0; i < heads.length; i++) {
+                int head = in.readInt();
+                if (head < 0 || head >= maxNumPerCycle) {
+                    throw new IOException("Invalid sliding window head: " + head);
+                }
+                heads[i] = head;
+            }
+            this.size = size;
+        }
+
+        private void copyFrom(Segment source) {
+            System.arraycopy(source.keys, 0, keys, 0, keys.length);
+            System.arraycopy(source.timestamps, 0, timestamps, 0, timestamps.length);
+            System.arraycopy(source.heads, 0, heads, 0, heads.length);
+            this.size = source.size;
+        }
+
+        private boolean acquire(int slot, long now, long windowMillis, int maxNumPerCycle) {
+            int head = heads[slot];
+            int index = slot * maxNumPerCycle + head;
+            //环中最旧的时间戳仍在窗口内，说明窗口内已经打印过 maxNumPerCycle 次
+            long oldest = timestamps[index];
+            if (oldest != 0 && now - oldest < windowMillis) {
+                return true;
+            }
+            timestamps[index] = now;
+            heads[slot] = head + 1 == maxNumPerCycle ? 0 : head + 1;
+            return false;
+        }
+    }
+}
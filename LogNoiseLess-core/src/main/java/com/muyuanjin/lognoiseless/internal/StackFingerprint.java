@@ -0,0 +1,227 @@
+package com.muyuanjin.lognoiseless.internal;
+
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import lombok.experimental.UtilityClass;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * 堆栈指纹，直接使用堆栈帧的类名、方法名、文件名和行号增量计算 64 位哈希，计算过程中不产生任何对象分配
+ * <p>
+ * 用于重复堆栈判断的指纹把字符串的每个字符（每 4 个字符一组）混入 64 位状态，{@link String#hashCode()} 只有 32 位，
+ * 碰撞很容易构造（如 "Aa" 与 "BB"），碰撞会使从未出现过的堆栈被当作重复堆栈跳过。每个字符串的 64 位哈希按 String 实例缓存，
+ * JVM 会驻留堆栈帧的类名、方法名和文件名，同一位置抛出的异常使用同一个 String 实例，重复计算时不需要再次遍历字符。
+ * {@link #ofChain} 只用于查找渲染模板，命中后逐帧核对，碰撞不影响结果，仍使用由 String 自身缓存的 {@link String#hashCode()}
+ *
+ * @author muyuanjin
+ */
+@UtilityClass
+public class StackFingerprint {
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+    private static final long MULTIPLIER = 0xC2B2AE3D27D4EB4FL;
+    /**
+     * cause 链参与计算的最大深度，同时避免循环引用的 cause 链
+     */
+    private static final int MAX_CAUSES = 32;
+    private static final int STRING_HASH_CACHE_SIZE = 4096;
+    /**
+     * 直接映射的字符串哈希缓存，只按 String 实例命中，条目不可变，多线程并发覆盖不会读到不一致的条目
+     */
+    private static final StringHash[] STRING_HASHES = new StringHash[STRING_HASH_CACHE_SIZE];
+
+    /**
+     * 计算堆栈帧数组的指纹
+     */
+    public static long of(StackTraceElementProxy @Nullable [] frames) {
+        long hash = SEED;
+        if (frames == null) {
+            return hash;
+        }
+        for (StackTraceElementProxy frame : frames) {
+            hash = mixFrame(hash, frame.getStackTraceElement());
+        }
+        return fmix64(hash ^ frames.length);
+    }
+
+    /**
+     * 计算堆栈帧数组的指纹，与 {@link #of(StackTraceElementProxy[])} 对同一堆栈的计算结果一致
+     */
+    public static long of(StackTraceElement @Nullable [] frames) {
+        long hash = SEED;
+        if (frames == null) {
+            return hash;
+        }
+        for (StackTraceElement frame : frames) {
+            hash = mixFrame(hash, frame);
+        }
+        return fmix64(hash ^ frames.length);
+    }
+
+    /**
+     * 计算整条异常链（包括 suppressed 和 cause）的精确指纹，包含每个节点的全部堆栈帧、公共帧数量和链的结构，
+     * 不包含异常类名和消息，同一指纹的异常链拥有完全相同的堆栈帧部分
+     */
+    public static long ofChain(@Nullable IThrowableProxy tp) {
+        return fmix64(mixChain(SEED, tp));
+    }
+
+    private static long mixChain(long hash, @Nullable IThrowableProxy tp) {
+        if (tp == null) {
+            return mix(hash, 0);
+        }
+        StackTraceElementProxy[] frames = tp.getStackTraceElementProxyArray();
+        hash = mix(hash, frames.length);
+        for (StackTraceElementProxy frame : frames) {
+            hash = mixFrameHashCodes(hash, frame.getStackTraceElement());
+        }
+        hash = mix(hash, tp.getCommonFrames());
+        IThrowableProxy[] suppressed = tp.getSuppressed();
+        hash = mix(hash, suppressed == null ? 0 : suppressed.length);
+        if (suppressed != null) {
+            for (IThrowableProxy current : suppressed) {
+                hash = mixChain(hash, current);
+            }
+        }
+        return mixChain(hash, tp.getCause());
+    }
+
+    /**
+     * 计算 cause 链的指纹，每个异常包括类名和除公共帧外的前 framesPerCause 个堆栈帧，不包括 suppressed 异常
+     *
+     * @param lineNumbers 是否包含行号
+     */
+    public static long ofCauses(@Nullable IThrowableProxy tp, int framesPerCause, boolean lineNumbers) {
+        long hash = SEED;
+        int depth = 0;
+        for (IThrowableProxy current = tp; current != null && depth < MAX_CAUSES; current = current.getCause(), depth++) {
+            StackTraceElementProxy[] frames = current.getStackTraceElementProxyArray();
+            int count = frames == null ? 0 : Math.min(framesPerCause, frames.length - Math.max(0, current.getCommonFrames()));
+            hash = mixString(hash, current.getClassName());
+            hash = mix(hash, count);
+            for (int i = 0; i < count; i++) {
+                hash = mixFrame(hash, frames[i].getStackTraceElement(), lineNumbers);
+            }
+        }
+        return fmix64(hash ^ depth);
+    }
+
+    /**
+     * 与 {@link #ofCauses(IThrowableProxy, int, boolean)} 对同一异常的计算结果一致，公共帧数量按 logback 的方式计算
+     */
+    public static long ofCauses(@Nullable Throwable throwable, int framesPerCause, boolean lineNumbers) {
+        long hash = SEED;
+        int depth = 0;
+        StackTraceElement[] enclosing = null;
+        for (Throwable current = throwable; current != null && depth < MAX_CAUSES; current = current.getCause(), depth++) {
+            StackTraceElement[] frames = current.getStackTrace();
+            int count = Math.min(framesPerCause, frames.length - commonFrames(frames, enclosing));
+            hash = mixString(hash, current.getClass().getName());
+            hash = mix(hash, count);
+            for (int i = 0; i < count; i++) {
+                hash = mixFrame(hash, frames[i], lineNumbers);
+            }
+            enclosing = frames;
+        }
+        return fmix64(hash ^ depth);
+    }
+
+    /**
+     * 从末尾开始与外层异常相同的堆栈帧数量
+     */
+    private static int commonFrames(StackTraceElement[] frames, StackTraceElement @Nullable [] enclosing) {
+        if (enclosing == null) {
+            return 0;
+        }
+        int count = 0;
+        for (int i = frames.length - 1, j = enclosing.length - 1; i >= 0 && j >= 0 && frames[i].equals(enclosing[j]); i--, j--) {
+            count++;
+        }
+        return count;
+    }
+
+    static long mixFrame(long hash, @Nullable StackTraceElement frame) {
+        return mixFrame(hash, frame, true);
+    }
+
+    private static long mixFrame(long hash, @Nullable StackTraceElement frame, boolean lineNumber) {
+        if (frame == null) {
+            return mix(hash, 0);
+        }
+        hash = mixString(hash, frame.getClassName());
+        hash = mixString(hash, frame.getMethodName());
+        hash = mixString(hash, frame.getFileName());
+        return lineNumber ? mix(hash, frame.getLineNumber()) : hash;
+    }
+
+    private static long mixFrameHashCodes(long hash, @Nullable StackTraceElement frame) {
+        if (frame == null) {
+            return mix(hash, 0);
+        }
+        hash = mix(hash, hashCode(frame.getClassName()));
+        hash = mix(hash, hashCode(frame.getMethodName()));
+        hash = mix(hash, hashCode(frame.getFileName()));
+        return mix(hash, frame.getLineNumber());
+    }
+
+    static long mix(long hash, int value) {
+        return mix(hash, value & 0xFFFFFFFFL);
+    }
+
+    private static long mix(long hash, long value) {
+        hash ^= value * MULTIPLIER;
+        return Long.rotateLeft(hash, 31) * SEED;
+    }
+
+    /**
+     * null 与空字符串的结果不同
+     */
+    private static long mixString(long hash, @Nullable String string) {
+        return string == null ? mix(hash, 0x5BD1E995) : mix(hash, hash64(string));
+    }
+
+    private static long hash64(String string) {
+        int index = string.hashCode() & (STRING_HASH_CACHE_SIZE - 1);
+        StringHash cached = STRING_HASHES[index];
+        if (cached != null && cached.string == string) {
+            return cached.hash;
+        }
+        long hash = SEED;
+        int length = string.length();
+        int i = 0;
+        //每 4 个字符组成一个 long 混入，最后混入长度
+        for (; i + 4 <= length; i += 4) {
+            hash = mix(hash, string.charAt(i) | (long) string.charAt(i + 1) << 16 | (long) string.charAt(i + 2) << 32 | (long) string.charAt(i + 3) << 48);
+        }
+        long tail = 0;
+        for (int shift = 0; i < length; i++, shift += 16) {
+            tail |= (long) string.charAt(i) << shift;
+        }
+        hash = mix(mix(hash, tail), length);
+        STRING_HASHES[index] = new StringHash(string, hash);
+        return hash;
+    }
+
+    static long fmix64(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static int hashCode(@Nullable String string) {
+        //区分 null 与空字符串，同时把长度混入以降低 String#hashCode 碰撞的概率
+        return string == null ? 0x5BD1E995 : string.hashCode() * 31 + string.length();
+    }
+
+    private static final class StringHash {
+        private final String string;
+        private final long hash;
+
+        private StringHash(String string, long hash) {
+            this.string = string;
+            this.hash = hash;
+        }
+    }
+}
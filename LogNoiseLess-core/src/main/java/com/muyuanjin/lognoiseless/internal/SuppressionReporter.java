@@ -0,0 +1,139 @@
+package com.muyuanjin.lognoiseless.internal;
+
+import com.muyuanjin.lognoiseless.util.NoiseLessScheduler;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 被跳过的全栈打印次数统计，按堆栈指纹计数，后台线程每个周期为每个噪音异常输出一行汇总，如
+ * "IllegalStateException@Foo.bar suppressed 18,344 times in last 5m"
+ *
+ * @author muyuanjin
+ */
+public class SuppressionReporter {
+    private static final Logger SUMMARY_LOGGER = LoggerFactory.getLogger("com.muyuanjin.lognoiseless.SuppressionSummary");
+    private final Map<Long, Counter> counters = new ConcurrentHashMap<>();
+    /**
+     * 统计条目达到上限后，新出现的堆栈只计入总数
+     */
+    private final LongAdder overflow = new LongAdder();
+    private final Duration interval;
+    private final int maxEntries;
+    private final String intervalText;
+
+    /**
+     * @param interval   汇总输出的间隔
+     * @param maxEntries 最多统计的不同堆栈数量
+     */
+    public SuppressionReporter(Duration interval, int maxEntries) {
+        Assert.isTrue(!interval.isNegative() && !interval.isZero(), "interval must be positive");
+        Assert.isTrue(maxEntries > 0, "maxEntries must be greater than 0");
+        this.interval = interval;
+        this.maxEntries = maxEntries;
+        this.intervalText = format(interval);
+        NoiseLessScheduler.scheduleAtFixedRate(this, SuppressionReporter::flush, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 记录一次全栈被跳过
+     *
+     * @param className 异常类名
+     * @param top       异常抛出位置的堆栈帧
+     */
+    public void record(long fingerprint, String className, @Nullable StackTraceElement top) {
+        Counter counter = counters.get(fingerprint);
+        if (counter == null) {
+            if (counters.size() >= maxEntries) {
+                overflow.increment();
+                return;
+            }
+            counter = counters.computeIfAbsent(fingerprint, k -> new Counter(label(className, top)));
+        }
+        counter.count.increment();
+    }
+
+    public Duration getInterval() {
+        return interval;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * 输出并清空本周期的统计，连续两个周期都没有再出现的堆栈会被移除
+     * <p>
+     * {@link #record} 先取得计数器再累加，移除前已经取得计数器的线程可能在移除后才累加。只移除空闲了一整个周期的条目，
+     * 移除后计数器不为0时放回，避免丢失计数
+     */
+    public void flush() {
+        for (Map.Entry<Long, Counter> entry : counters.entrySet()) {
+            Counter counter = entry.getValue();
+            long count = counter.count.sumThenReset();
+            if (count > 0) {
+                counter.idleFlushes = 0;
+                SUMMARY_LOGGER.info("{} suppressed {} times in last {}", counter.label, String.format("%,d", count), intervalText);
+            } else if (++counter.idleFlushes >= 2 && counters.remove(entry.getKey(), counter) && counter.count.sum() > 0) {
+                counter.idleFlushes = 0;
+                Counter current = counters.putIfAbsent(entry.getKey(), counter);
+                if (current != null) {
+                    current.count.add(counter.count.sumThenReset());
+                }
+            }
+        }
+        long count = overflow.sumThenReset();
+        if (count > 0) {
+            SUMMARY_LOGGER.info("other exceptions suppressed {} times in last {}", String.format("%,d", count), intervalText);
+        }
+    }
+
+    /**
+     * 异常简单类名@抛出位置的简单类名.方法名
+     */
+    private static String label(String className, @Nullable StackTraceElement top) {
+        StringBuilder builder = new StringBuilder(simpleName(className));
+        if (top != null) {
+            builder.append('@').append(simpleName(top.getClassName())).append('.').append(top.getMethodName());
+        }
+        return builder.toString();
+    }
+
+    private static String simpleName(String className) {
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+
+    private static String format(Duration duration) {
+        long millis = duration.toMillis();
+        if (millis % TimeUnit.HOURS.toMillis(1) == 0) {
+            return millis / TimeUnit.HOURS.toMillis(1) + "h";
+        }
+        if (millis % TimeUnit.MINUTES.toMillis(1) == 0) {
+            return millis / TimeUnit.MINUTES.toMillis(1) + "m";
+        }
+        if (millis % TimeUnit.SECONDS.toMillis(1) == 0) {
+            return millis / TimeUnit.SECONDS.toMillis(1) + "s";
+        }
+        return millis + "ms";
+    }
+
+    private static final class Counter {
+        private final String label;
+        private final LongAdder count = new LongAdder();
+        /**
+         * 连续没有计数的汇总次数，只由汇总线程读写
+         */
+        private int idleFlushes;
+
+        private Counter(String label) {
+            this.label = label;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.muyuanjin.lognoiseless.internal;
+
+import com.muyuanjin.lognoiseless.util.CoarseClock;
+import com.muyuanjin.lognoiseless.util.NoiseLessScheduler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 无锁的堆栈计数槽位表，每个 8 字节槽位保存 32 位指纹标签、16 位周期序号和 16 位计数，只通过 CAS 整体更新
+ * <p>
+ * 每个指纹只在一个缓存行（8 个槽位）组成的探测窗口中查找，周期序号变化后旧计数自然失效。周期边界按标签在周期内错开，
+ * 不同堆栈在不同时刻过期，不会所有已知异常（以及所有使用相同配置的机器）在同一时刻重新打印全栈；偏移只由标签决定，多个进程和重启前后一致。
+ * 周期序号只有 16 位，会回绕，定期清除已过期的槽位，避免长期未出现的堆栈在回绕后被当作本周期的计数
+ * 子类只负责槽位的读取和 CAS，{@link ShardedThrowableDuplicateFilter} 保存在堆内，{@link SharedMappedThrowableDuplicateFilter} 保存在映射文件中
+ *
+ * @author muyuanjin
+ */
+abstract class TaggedSlotTable {
+    static final int SLOT_BYTES = 8;
+    /**
+     * 每个指纹只在这些槽位中查找，正好一个缓存行
+     */
+    static final int PROBE_WINDOW = 8;
+    static final int MAX_COUNT = 0xFFFF;
+    /**
+     * CAS 连续失败超过该次数时直接打印全栈
+     */
+    private static final int MAX_RETRIES = 16;
+    private static final int FILL_RATIO_SAMPLES = 8192;
+    private static final int EPOCH_MASK = 0xFFFF;
+    /**
+     * 清除过期槽位的间隔（周期数），远小于周期序号回绕的 65536 个周期
+     */
+    private static final long SWEEP_CYCLES = 1 << 14;
+    private final long cycleMillis;
+
+    /**
+     * @param cycleMillis 周期长度
+     */
+    TaggedSlotTable(long cycleMillis) {
+        this.cycleMillis = cycleMillis;
+    }
+
+    /**
+     * 槽位数
+     */
+    abstract int capacity();
+
+    /**
+     * volatile 读取槽位
+     */
+    abstract long get(int index);
+
+    abstract boolean compareAndSet(int index, long expected, long value);
+
+    /**
+     * 在探测窗口中为指纹计数，同一堆栈在周期内超过最大数量后只读取槽位，不再写入
+     *
+     * @param window   探测窗口的第一个槽位，是 {@link #PROBE_WINDOW} 的整数倍
+     * @param maxCount 周期内允许的最大计数
+     * @return 本周期的计数已达到 maxCount 时返回 true
+     */
+    boolean isFull(int window, long fingerprint, int maxCount) {
+        //0 用来表示空槽位
+        int tag = (int) (fingerprint >>> 32);
+        if (tag == 0) {
+            tag = 1;
+        }
+        long now = CoarseClock.currentTimeMillis();
+        long base = now / cycleMillis;
+        long elapsed = now - base * cycleMillis;
+        int epoch = epoch(tag, base, elapsed);
+        for (int retry = 0; retry < MAX_RETRIES; retry++) {
+            int matched = -1;
+            long matchedValue = 0;
+            int free = -1;
+            long freeValue = 0;
+            for (int i = window; i < window + PROBE_WINDOW; i++) {
+                long value = get(i);
+                if (value != 0 && tagOf(value) == tag) {
+                    matched = i;
+                    matchedValue = value;
+                    break;
+                }
+                if (free < 0 && (value == 0 || epochOf(value) != epoch(tagOf(value), base, elapsed))) {
+                    free = i;
+                    freeValue = value;
+                }
+            }
+            if (matched >= 0 && epochOf(matchedValue) == epoch) {
+                if (countOf(matchedValue) >= maxCount) {
+                    return true;
+                }
+                if (compareAndSet(matched, matchedValue, matchedValue + 1)) {
+                    return false;
+                }
+                continue;
+            }
+            //上个周期的同一指纹或者空闲（空或已过期）的槽位
+            int target = matched >= 0 ? matched : free;
+            long expected = matched >= 0 ? matchedValue : freeValue;
+            if (target < 0) {
+                //窗口内都是本周期的其他堆栈，不记录，总是打印全栈而不会被误跳过
+                return false;
+            }
+            if (compareAndSet(target, expected, pack(tag, epoch, 1))) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 抽样估算本周期已使用的槽位比例
+     */
+    double getFillRatio() {
+        long now = CoarseClock.currentTimeMillis();
+        long base = now / cycleMillis;
+        long elapsed = now - base * cycleMillis;
+        int capacity = capacity();
+        int samples = Math.min(capacity, FILL_RATIO_SAMPLES);
+        int stride = capacity / samples;
+        int used = 0;
+        for (int i = 0; i < samples; i++) {
+            long value = get(i * stride);
+            if (value != 0 && epochOf(value) == epoch(tagOf(value), base, elapsed)) {
+                used++;
+            }
+        }
+        return (double) used / samples;
+    }
+
+    /**
+     * 把已过期的槽位清零，槽位在此期间被其他线程（进程）更新时跳过
+     */
+    void sweep() {
+        long now = CoarseClock.currentTimeMillis();
+        long base = now / cycleMillis;
+        long elapsed = now - base * cycleMillis;
+        int capacity = capacity();
+        for (int i = 0; i < capacity; i++) {
+            long value = get(i);
+            if (value != 0 && epochOf(value) != epoch(tagOf(value), base, elapsed)) {
+                compareAndSet(i, value, 0);
+            }
+        }
+    }
+
+    /**
+     * 每 {@link #SWEEP_CYCLES} 个周期清除一次过期槽位，只持有槽位表的弱引用
+     */
+    void scheduleSweep() {
+        long period = cycleMillis > Long.MAX_VALUE / SWEEP_CYCLES ? Long.MAX_VALUE : cycleMillis * SWEEP_CYCLES;
+        NoiseLessScheduler.scheduleAtFixedRate(this, TaggedSlotTable::sweep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 新堆栈与窗口内其他堆栈的 32 位标签相同的概率
+     */
+    static double getFalsePositiveProbability(double fillRatio) {
+        return fillRatio * PROBE_WINDOW / 4294967296.0;
+    }
+
+    /**
+     * 标签对应的周期序号，周期边界按标签在周期内偏移 [0, cycleMillis)
+     *
+     * @param base    当前时间按墙上时钟对齐的周期数
+     * @param elapsed 当前时间在对齐的周期内已经过的毫秒数
+     */
+    private int epoch(int tag, long base, long elapsed) {
+        long offset = cycleMillis <= Integer.MAX_VALUE ? ((tag & 0xFFFFFFFFL) * cycleMillis) >>> 32 : (tag & 0xFFFFFFFFL) % cycleMillis;
+        return (int) (elapsed + offset >= cycleMillis ? base + 1 : base) & EPOCH_MASK;
+    }
+
+    private static long pack(int tag, int epoch, int count) {
+        return (tag & 0xFFFFFFFFL) << 32 | (long) epoch << 16 | count;
+    }
+
+    private static int tagOf(long value) {
+        return (int) (value >>> 32);
+    }
+
+    private static int epochOf(long value) {
+        return (int) (value >>> 16) & EPOCH_MASK;
+    }
+
+    private static int countOf(long value) {
+        return (int) value & 0xFFFF;
+    }
+}
@@ -0,0 +1,346 @@
+package com.muyuanjin.lognoiseless.metrics;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.muyuanjin.lognoiseless.internal.AbstractThrowableDuplicateFilter;
+import com.muyuanjin.lognoiseless.internal.NoiseLessConfig;
+import com.muyuanjin.lognoiseless.internal.RenderBudget;
+import lombok.experimental.UtilityClass;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 噪音抑制的运行指标，热路径上只做 {@link LongAdder} 累加
+ * <p>
+ * 容器中有 MeterRegistry 时由 {@link NoiseLessMetricsBinder} 绑定到 Micrometer，否则注册为 JMX MXBean
+ *
+ * @author muyuanjin
+ */
+@UtilityClass
+public class NoiseLessMetrics {
+    public static final String OBJECT_NAME = "com.muyuanjin.lognoiseless:type=NoiseLessMetrics";
+    private static boolean jmxRegistered;
+    private static boolean micrometerBound;
+    private static final LongAdder CONVERTED_EVENTS = new LongAdder();
+    private static final LongAdder CONVERT_NANOS = new LongAdder();
+    private static final LongAdder FULL_STACKS = new LongAdder();
+    private static final LongAdder REDUCED_STACKS = new LongAdder();
+    private static final LongAdder SKIPPED_FRAMES = new LongAdder();
+    private static final LongAdder RENDERED_CHARS = new LongAdder();
+    private static final LongAdder SAVED_CHARS = new LongAdder();
+    private static final LongAdder PREDICATE_FAILURES = new LongAdder();
+    private static final LongAdder DEGRADED_SKIP_FRAMES = new LongAdder();
+    private static final LongAdder DEGRADED_TOP_FRAMES = new LongAdder();
+    private static final LongAdder DEGRADED_FIRST_LINE = new LongAdder();
+    private static final LongAdder DEGRADED_CHARS = new LongAdder();
+
+    /**
+     * 还未绑定到 Micrometer 时注册 JMX MXBean，只注册一次。转换器启动时 Spring 容器通常还未创建，无法预知之后是否会绑定，
+     * 先注册，绑定后由 {@link #onMicrometerBound} 注销
+     */
+    public static synchronized void registerJmxIfNecessary() {
+        if (micrometerBound || jmxRegistered) {
+            return;
+        }
+        jmxRegistered = true;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new Jmx(), name);
+            }
+        } catch (JMException | SecurityException e) {
+            System.err.println("LogNoiseLess 指标注册 JMX 失败,error: \n" + e);
+        }
+    }
+
+    /**
+     * 已绑定到 MeterRegistry，注销 JMX MXBean，避免同一指标重复暴露
+     */
+    static synchronized void onMicrometerBound() {
+        if (micrometerBound) {
+            return;
+        }
+        micrometerBound = true;
+        if (!jmxRegistered) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException | SecurityException e) {
+            System.err.println("LogNoiseLess 指标注销 JMX 失败,error: \n" + e);
+        }
+    }
+
+    /**
+     * 记录一次异常转换
+     */
+    public static void recordConvert(long nanos) {
+        CONVERTED_EVENTS.increment();
+        CONVERT_NANOS.add(nanos);
+    }
+
+    /**
+     * 记录一次实际渲染
+     *
+     * @param reduced       是否启用了堆栈行跳过
+     * @param skippedFrames 被跳过的堆栈帧数量
+     * @param renderedChars 渲染结果的 Java 字符数
+     * @param savedChars    跳过堆栈帧节省的 Java 字符数
+     */
+    public static void recordRender(boolean reduced, int skippedFrames, int renderedChars, long savedChars) {
+        (reduced ? REDUCED_STACKS : FULL_STACKS).increment();
+        if (skippedFrames > 0) {
+            SKIPPED_FRAMES.add(skippedFrames);
+            SAVED_CHARS.add(savedChars);
+        }
+        RENDERED_CHARS.add(renderedChars);
+    }
+
+    /**
+     * 记录一次因渲染预算不足导致的降级，同一次渲染也会通过 {@link #recordRender} 记录
+     *
+     * @param degradedChars 降级节省的字符数
+     */
+    public static void recordDegrade(RenderBudget.Level level, long degradedChars) {
+        switch (level) {
+            case SKIP_FRAMES:
+                DEGRADED_SKIP_FRAMES.increment();
+                break;
+            case TOP_FRAMES:
+                DEGRADED_TOP_FRAMES.increment();
+                break;
+            case FIRST_LINE:
+                DEGRADED_FIRST_LINE.increment();
+                break;
+            default:
+                return;
+        }
+        DEGRADED_CHARS.add(degradedChars);
+    }
+
+    /**
+     * 记录一次跳过谓词调用失败
+     */
+    public static void recordPredicateFailure() {
+        PREDICATE_FAILURES.increment();
+    }
+
+    public static long getConvertedEvents() {
+        return CONVERTED_EVENTS.sum();
+    }
+
+    public static long getConvertNanos() {
+        return CONVERT_NANOS.sum();
+    }
+
+    public static long getFullStacks() {
+        return FULL_STACKS.sum();
+    }
+
+    public static long getReducedStacks() {
+        return REDUCED_STACKS.sum();
+    }
+
+    public static long getSkippedFrames() {
+        return SKIPPED_FRAMES.sum();
+    }
+
+    public static long getRenderedChars() {
+        return RENDERED_CHARS.sum();
+    }
+
+    /**
+     * 按堆栈行格式估算的节省字符数，在渲染时遍历被跳过的堆栈帧时累计，按 Java 字符计，不是编码后的字节数
+     */
+    public static long getSavedChars() {
+        return SAVED_CHARS.sum();
+    }
+
+    public static long getPredicateFailures() {
+        return PREDICATE_FAILURES.sum();
+    }
+
+    /**
+     * 因渲染预算不足被强制启用堆栈行跳过的堆栈数
+     */
+    public static long getDegradedSkipFramesStacks() {
+        return DEGRADED_SKIP_FRAMES.sum();
+    }
+
+    /**
+     * 因渲染预算不足只打印前几帧的堆栈数
+     */
+    public static long getDegradedTopFramesStacks() {
+        return DEGRADED_TOP_FRAMES.sum();
+    }
+
+    /**
+     * 因渲染预算不足只打印首行的堆栈数
+     */
+    public static long getDegradedFirstLineStacks() {
+        return DEGRADED_FIRST_LINE.sum();
+    }
+
+    /**
+     * 按堆栈行格式估算的降级节省的字符数，已包含在 {@link #getSavedChars()} 中
+     */
+    public static long getDegradedChars() {
+        return DEGRADED_CHARS.sum();
+    }
+
+    /**
+     * 重复堆栈判断结果缓存的命中率，多个 appender 渲染同一事件时命中
+     */
+    public static double getResultCacheHitRate() {
+        CacheStats stats = AbstractThrowableDuplicateFilter.getResultCacheStats();
+        return stats.requestCount() == 0 ? 0 : stats.hitRate();
+    }
+
+    /**
+     * 堆栈帧跳过判断结果缓存的命中率，配置刷新后重新统计，未启用缓存时为 0
+     */
+    public static double getFrameSkipCacheHitRate() {
+        NoiseLessConfig config = NoiseLessConfig.INSTANCE.isInitialized() ? NoiseLessConfig.INSTANCE.get() : null;
+        CacheStats stats = config == null ? CacheStats.empty() : config.getFrameSkipCacheStats();
+        return stats.requestCount() == 0 ? 0 : stats.hitRate();
+    }
+
+    /**
+     * 重复堆栈过滤器的填充率，配置了策略规则时为所有过滤器中的最大值，未启用时为 NaN
+     */
+    public static double getFilterFillRatio() {
+        double fillRatio = Double.NaN;
+        for (AbstractThrowableDuplicateFilter filter : getDuplicateFilters()) {
+            fillRatio = Double.isNaN(fillRatio) ? filter.getFillRatio() : Math.max(fillRatio, filter.getFillRatio());
+        }
+        return fillRatio;
+    }
+
+    /**
+     * 重复堆栈过滤器估算的误判率，配置了策略规则时为所有过滤器中的最大值，未启用时为 NaN
+     */
+    public static double getFilterFalsePositiveProbability() {
+        double fpp = Double.NaN;
+        for (AbstractThrowableDuplicateFilter filter : getDuplicateFilters()) {
+            fpp = Double.isNaN(fpp) ? filter.getFalsePositiveProbability() : Math.max(fpp, filter.getFalsePositiveProbability());
+        }
+        return fpp;
+    }
+
+    /**
+     * 所有重复堆栈过滤器当前占用的内存（字节），未启用时为 0
+     */
+    public static long getFilterMemoryBytes() {
+        long memoryBytes = 0;
+        for (AbstractThrowableDuplicateFilter filter : getDuplicateFilters()) {
+            memoryBytes += filter.getMemoryBytes();
+        }
+        return memoryBytes;
+    }
+
+    private static List<AbstractThrowableDuplicateFilter> getDuplicateFilters() {
+        //不主动触发配置初始化
+        if (!NoiseLessConfig.INSTANCE.isInitialized()) {
+            return Collections.emptyList();
+        }
+        NoiseLessConfig config = NoiseLessConfig.INSTANCE.get();
+        return config == null ? Collections.<AbstractThrowableDuplicateFilter>emptyList() : config.getDuplicateFilters();
+    }
+
+    private static final class Jmx implements NoiseLessMetricsMXBean {
+        @Override
+        public long getConvertedEvents() {
+            return NoiseLessMetrics.getConvertedEvents();
+        }
+
+        @Override
+        public long getConvertNanos() {
+            return NoiseLessMetrics.getConvertNanos();
+        }
+
+        @Override
+        public long getFullStacks() {
+            return NoiseLessMetrics.getFullStacks();
+        }
+
+        @Override
+        public long getReducedStacks() {
+            return NoiseLessMetrics.getReducedStacks();
+        }
+
+        @Override
+        public long getSkippedFrames() {
+            return NoiseLessMetrics.getSkippedFrames();
+        }
+
+        @Override
+        public long getRenderedChars() {
+            return NoiseLessMetrics.getRenderedChars();
+        }
+
+        @Override
+        public long getSavedChars() {
+            return NoiseLessMetrics.getSavedChars();
+        }
+
+        @Override
+        public long getPredicateFailures() {
+            return NoiseLessMetrics.getPredicateFailures();
+        }
+
+        @Override
+        public long getDegradedSkipFramesStacks() {
+            return NoiseLessMetrics.getDegradedSkipFramesStacks();
+        }
+
+        @Override
+        public long getDegradedTopFramesStacks() {
+            return NoiseLessMetrics.getDegradedTopFramesStacks();
+        }
+
+        @Override
+        public long getDegradedFirstLineStacks() {
+            return NoiseLessMetrics.getDegradedFirstLineStacks();
+        }
+
+        @Override
+        public long getDegradedChars() {
+            return NoiseLessMetrics.getDegradedChars();
+        }
+
+        @Override
+        public double getResultCacheHitRate() {
+            return NoiseLessMetrics.getResultCacheHitRate();
+        }
+
+        @Override
+        public double getFrameSkipCacheHitRate() {
+            return NoiseLessMetrics.getFrameSkipCacheHitRate();
+        }
+
+        @Override
+        public double getFilterFillRatio() {
+            return NoiseLessMetrics.getFilterFillRatio();
+        }
+
+        @Override
+        public double getFilterFalsePositiveProbability() {
+            return NoiseLessMetrics.getFilterFalsePositiveProbability();
+        }
+
+        @Override
+        public long getFilterMemoryBytes() {
+            return NoiseLessMetrics.getFilterMemoryBytes();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.muyuanjin.lognoiseless.metrics;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * classpath 中有 Micrometer 时注册 {@link NoiseLessMetricsBinder}，容器中没有 MeterRegistry 时不会绑定，指标继续通过 JMX 暴露
+ *
+ * @author muyuanjin
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnClass(name = "io.micrometer.core.instrument.binder.MeterBinder")
+public class NoiseLessMetricsAutoConfiguration {
+    @Bean
+    public NoiseLessMetricsBinder noiseLessMetricsBinder() {
+        return new NoiseLessMetricsBinder();
+    }
+}
@@ -0,0 +1,57 @@
+package com.muyuanjin.lognoiseless.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * 将 {@link NoiseLessMetrics} 绑定到 Micrometer，Micrometer 只弱引用指标的状态对象，所以统一使用 {@link NoiseLessMetrics} 的 Class 对象
+ *
+ * @author muyuanjin
+ */
+public class NoiseLessMetricsBinder implements MeterBinder {
+    @Override
+    public void bindTo(@NotNull MeterRegistry registry) {
+        NoiseLessMetrics.onMicrometerBound();
+        FunctionTimer.builder("lognoiseless.convert", NoiseLessMetrics.class, c -> NoiseLessMetrics.getConvertedEvents(),
+                        c -> NoiseLessMetrics.getConvertNanos(), TimeUnit.NANOSECONDS)
+                .description("Time spent converting throwables of logging events")
+                .register(registry);
+        counter(registry, "lognoiseless.stacks", "type", "full", "Stacks rendered in full", NoiseLessMetrics::getFullStacks);
+        counter(registry, "lognoiseless.stacks", "type", "reduced", "Stacks rendered with skipped lines", NoiseLessMetrics::getReducedStacks);
+        counter(registry, "lognoiseless.frames.skipped", null, null, "Stack frames skipped", NoiseLessMetrics::getSkippedFrames);
+        counter(registry, "lognoiseless.chars", "type", "rendered", "Java chars (not encoded bytes) of rendered stacks", NoiseLessMetrics::getRenderedChars);
+        counter(registry, "lognoiseless.chars", "type", "saved", "Estimated Java chars (not encoded bytes) saved by skipped frames", NoiseLessMetrics::getSavedChars);
+        counter(registry, "lognoiseless.stacks.degraded", "level", "skip_frames", "Stacks forced to skip lines by the render budget", NoiseLessMetrics::getDegradedSkipFramesStacks);
+        counter(registry, "lognoiseless.stacks.degraded", "level", "top_frames", "Stacks truncated to the top frames by the render budget", NoiseLessMetrics::getDegradedTopFramesStacks);
+        counter(registry, "lognoiseless.stacks.degraded", "level", "first_line", "Stacks reduced to first lines by the render budget", NoiseLessMetrics::getDegradedFirstLineStacks);
+        counter(registry, "lognoiseless.chars", "type", "degraded", "Estimated Java chars (not encoded bytes) saved by the render budget", NoiseLessMetrics::getDegradedChars);
+        counter(registry, "lognoiseless.predicate.failures", null, null, "Failures of the skip predicate", NoiseLessMetrics::getPredicateFailures);
+        gauge(registry, "lognoiseless.result.cache.hit.ratio", "Hit ratio of the duplicate decision cache", NoiseLessMetrics::getResultCacheHitRate);
+        gauge(registry, "lognoiseless.frame.cache.hit.ratio", "Hit ratio of the stack frame skip decision cache", NoiseLessMetrics::getFrameSkipCacheHitRate);
+        gauge(registry, "lognoiseless.filter.fill.ratio", "Fill ratio of the duplicate filter", NoiseLessMetrics::getFilterFillRatio);
+        gauge(registry, "lognoiseless.filter.fpp", "Estimated false positive probability of the duplicate filter", NoiseLessMetrics::getFilterFalsePositiveProbability);
+        Gauge.builder("lognoiseless.filter.memory", NoiseLessMetrics.class, c -> NoiseLessMetrics.getFilterMemoryBytes())
+                .description("Memory used by the duplicate filter").baseUnit("bytes").register(registry);
+    }
+
+    private static void counter(MeterRegistry registry, String name, @Nullable String tagKey, @Nullable String tagValue, String description, LongSupplier supplier) {
+        FunctionCounter.Builder<Class<NoiseLessMetrics>> builder = FunctionCounter.builder(name, NoiseLessMetrics.class, c -> supplier.getAsLong()).description(description);
+        if (tagKey != null) {
+            builder.tag(tagKey, tagValue);
+        }
+        builder.register(registry);
+    }
+
+    private static void gauge(MeterRegistry registry, String name, String description, DoubleSupplier supplier) {
+        Gauge.builder(name, NoiseLessMetrics.class, c -> supplier.getAsDouble()).description(description).register(registry);
+    }
+}
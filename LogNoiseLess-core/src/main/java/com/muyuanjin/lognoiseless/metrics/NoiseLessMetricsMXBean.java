@@ -0,0 +1,52 @@
+package com.muyuanjin.lognoiseless.metrics;
+
+/**
+ * 没有 Micrometer 时通过 JMX 暴露的指标
+ *
+ * @author muyuanjin
+ * @see NoiseLessMetrics
+ */
+public interface NoiseLessMetricsMXBean {
+    long getConvertedEvents();
+
+    long getConvertNanos();
+
+    long getFullStacks();
+
+    long getReducedStacks();
+
+    long getSkippedFrames();
+
+    /**
+     * 渲染输出的 Java 字符数，不是编码后的字节数
+     */
+    long getRenderedChars();
+
+    /**
+     * 跳过堆栈帧节省的 Java 字符数（估算），不是编码后的字节数
+     */
+    long getSavedChars();
+
+    long getPredicateFailures();
+
+    long getDegradedSkipFramesStacks();
+
+    long getDegradedTopFramesStacks();
+
+    long getDegradedFirstLineStacks();
+
+    /**
+     * 渲染预算降级节省的 Java 字符数（估算），不是编码后的字节数
+     */
+    long getDegradedChars();
+
+    double getResultCacheHitRate();
+
+    double getFrameSkipCacheHitRate();
+
+    double getFilterFillRatio();
+
+    double getFilterFalsePositiveProbability();
+
+    long getFilterMemoryBytes();
+}
@@ -0,0 +1,33 @@
+package com.muyuanjin.lognoiseless.util;
+
+import lombok.experimental.UtilityClass;
+
+/**
+ * 粗粒度时钟，由独立的守护线程定时刷新，不受其他定时任务耗时的影响，热路径上只需读取一个 volatile 变量，精度为 {@link #TICK_MILLIS} 毫秒
+ */
+@UtilityClass
+public class CoarseClock {
+    public static final long TICK_MILLIS = 10;
+    private static volatile long now = System.currentTimeMillis();
+
+    static {
+        Thread ticker = new Thread(CoarseClock::tick, "LogNoiseLess-clock");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    public static long currentTimeMillis() {
+        return now;
+    }
+
+    private static void tick() {
+        while (true) {
+            try {
+                Thread.sleep(TICK_MILLIS);
+            } catch (InterruptedException e) {
+                //时钟停止会使所有依赖它的过滤器失效，忽略中断继续刷新
+            }
+            now = System.currentTimeMillis();
+        }
+    }
+}
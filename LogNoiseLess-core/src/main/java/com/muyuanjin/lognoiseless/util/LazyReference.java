@@ -4,6 +4,7 @@ import org.jetbrains.annotations.Nullable;
 import org.springframework.util.Assert;
 
 import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 
 /**
@@ -11,11 +12,21 @@ import java.util.function.Supplier;
  */
 public class LazyReference<T> {
     private volatile Supplier<? extends T> supplier;
-    private T value;
+    private volatile T value;
+    @Nullable
+    private final UnaryOperator<T> refresher;
 
     public LazyReference(Supplier<? extends T> supplier) {
+        this(supplier, null);
+    }
+
+    /**
+     * @param refresher 根据旧值生成新值，为null时不支持刷新
+     */
+    public LazyReference(Supplier<? extends T> supplier, @Nullable UnaryOperator<T> refresher) {
         Assert.notNull(supplier, "supplier can not be null");
         this.supplier = supplier;
+        this.refresher = refresher;
     }
 
     public T get() {
@@ -28,6 +39,22 @@ public class LazyReference<T> {
         return value;
     }
 
+    /**
+     * 在调用线程上生成新值后整体替换，读取方不会被阻塞，始终读到旧值或新值；未初始化时不做任何事，留到首次读取时初始化
+     *
+     * @return 是否已替换
+     */
+    public boolean refresh() {
+        Assert.state(refresher != null, "this reference is not refreshable");
+        if (!isInitialized()) {
+            return false;
+        }
+        synchronized (this) {
+            this.value = refresher.apply(this.value);
+        }
+        return true;
+    }
+
     /**
      * 是否已经调用过 supplier 执行过初始化
      */
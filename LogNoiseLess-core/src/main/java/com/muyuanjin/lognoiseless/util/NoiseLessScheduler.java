@@ -0,0 +1,91 @@
+package com.muyuanjin.lognoiseless.util;
+
+import lombok.experimental.UtilityClass;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 共享的后台定时任务线程，守护线程，不会阻止 JVM 退出
+ * <p>
+ * 写文件等可能长时间阻塞的任务使用单独的 I/O 线程，避免延误其他定时任务
+ */
+@UtilityClass
+public class NoiseLessScheduler {
+    private static final LazyReference<ScheduledExecutorService> EXECUTOR = new LazyReference<>(() -> newExecutor("LogNoiseLess-scheduler"));
+    private static final LazyReference<ScheduledExecutorService> IO_EXECUTOR = new LazyReference<>(() -> newExecutor("LogNoiseLess-io"));
+
+    public static ScheduledExecutorService getExecutor() {
+        return EXECUTOR.get();
+    }
+
+    public static ScheduledExecutorService getIoExecutor() {
+        return IO_EXECUTOR.get();
+    }
+
+    /**
+     * 以固定频率对目标对象执行任务，只持有目标对象的弱引用，目标对象被回收后任务自动取消
+     */
+    public static <T> ScheduledFuture<?> scheduleAtFixedRate(T target, Consumer<? super T> action, long initialDelay, long period, TimeUnit unit) {
+        return scheduleAtFixedRate(getExecutor(), target, action, initialDelay, period, unit);
+    }
+
+    /**
+     * 与 {@link #scheduleAtFixedRate} 相同，在 I/O 线程上执行
+     */
+    public static <T> ScheduledFuture<?> scheduleIoAtFixedRate(T target, Consumer<? super T> action, long initialDelay, long period, TimeUnit unit) {
+        return scheduleAtFixedRate(getIoExecutor(), target, action, initialDelay, period, unit);
+    }
+
+    private static <T> ScheduledFuture<?> scheduleAtFixedRate(ScheduledExecutorService executor, T target, Consumer<? super T> action,
+                                                              long initialDelay, long period, TimeUnit unit) {
+        WeakTask<T> task = new WeakTask<>(target, action);
+        ScheduledFuture<?> future = executor.scheduleAtFixedRate(task, initialDelay, period, unit);
+        task.future = future;
+        return future;
+    }
+
+    private static ScheduledExecutorService newExecutor(String name) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    private static final class WeakTask<T> implements Runnable {
+        private final WeakReference<T> reference;
+        private final Consumer<? super T> action;
+        private volatile ScheduledFuture<?> future;
+
+        private WeakTask(T target, Consumer<? super T> action) {
+            this.reference = new WeakReference<>(target);
+            this.action = action;
+        }
+
+        @Override
+        public void run() {
+            T target = reference.get();
+            if (target == null) {
+                ScheduledFuture<?> future = this.future;
+                if (future != null) {
+                    future.cancel(false);
+                }
+                return;
+            }
+            try {
+                action.accept(target);
+            } catch (RuntimeException e) {
+                //周期任务抛出异常后会被取消，这里吞掉异常保证后续仍能执行，
+                //不通过日志框架输出，避免任务持有的过滤器或配置本身出错时又进入本库处理的日志流程
+                System.err.println("LogNoiseLess 定时任务执行失败,error: \n" + e);
+            }
+        }
+    }
+}
@@ -18,6 +18,13 @@ public class SpringEnvUtil implements EnvironmentPostProcessor {
         SpringEnvUtil.ENVIRONMENT.set(environment);
     }
 
+    /**
+     * 替换读取属性使用的环境
+     */
+    public static void setEnvironment(ConfigurableEnvironment environment) {
+        SpringEnvUtil.ENVIRONMENT.set(environment);
+    }
+
     public static String[] getActiveProfiles() {
         return ENVIRONMENT.get().getActiveProfiles();
     }
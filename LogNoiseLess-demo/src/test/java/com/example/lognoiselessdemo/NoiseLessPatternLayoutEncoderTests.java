@@ -0,0 +1,148 @@
+package com.example.lognoiselessdemo;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.CoreConstants;
+import ch.qos.logback.core.pattern.PatternLayoutEncoderBase;
+import com.muyuanjin.lognoiseless.NoiseLessPatternLayoutEncoder;
+import com.muyuanjin.lognoiseless.internal.ExtensibleExtendedWhitespaceThrowableProxyConverter;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * {@link NoiseLessPatternLayoutEncoder} 与 {@link PatternLayoutEncoder} 对同一事件的编码结果必须逐字节一致
+ */
+class NoiseLessPatternLayoutEncoderTests {
+    private static final String PATTERN = "%d{yyyy-MM-dd HH:mm:ss.SSS} %5p [%15.15t] %-40.40logger{39} : %m%n%wEx";
+    private static final String SKIP_PATTERN = "%5p %logger : %m%n%wEx{full,org.junit,java.lang.reflect}";
+    private static final String SHORT_PATTERN = "%m%n%wEx{3}";
+    private static final String UNMAPPABLE = "中文 ✓ 😀 \uD800 end";
+
+    @Test
+    void deepCauses() {
+        Exception exception = new IllegalStateException("root");
+        for (int i = 0; i < 12; i++) {
+            exception = wrap(i, exception);
+        }
+        assertSameBytes(StandardCharsets.UTF_8, event("deep causes", exception));
+    }
+
+    @Test
+    void suppressedExceptions() {
+        IllegalStateException primary = new IllegalStateException("primary", new IllegalArgumentException("cause"));
+        RuntimeException suppressed = wrap(3, new UnsupportedOperationException("suppressed cause"));
+        suppressed.addSuppressed(wrap(2, new IllegalStateException("nested suppressed")));
+        primary.addSuppressed(suppressed);
+        primary.addSuppressed(new RuntimeException("second suppressed"));
+        assertSameBytes(StandardCharsets.UTF_8, event("suppressed", primary));
+    }
+
+    @Test
+    void nonUtf8Charsets() {
+        Exception exception = wrap(5, new IllegalStateException("é ü ß"));
+        assertSameBytes(StandardCharsets.ISO_8859_1, event("latin1 é ü ß", exception));
+        assertSameBytes(StandardCharsets.UTF_16, event("utf16 " + UNMAPPABLE, exception));
+        assertSameBytes(Charset.forName("GBK"), event("gbk 中文", exception));
+    }
+
+    @Test
+    void unmappableCharacters() {
+        Exception exception = wrap(4, new IllegalStateException(UNMAPPABLE));
+        exception.addSuppressed(new RuntimeException(UNMAPPABLE));
+        ILoggingEvent event = event(UNMAPPABLE, exception);
+        assertSameBytes(StandardCharsets.US_ASCII, event);
+        assertSameBytes(StandardCharsets.ISO_8859_1, event);
+        assertSameBytes(Charset.forName("GBK"), event);
+        assertSameBytes(StandardCharsets.UTF_8, event);
+        assertSameBytes(null, event);
+    }
+
+    @Test
+    void reusedBuffers() {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            message.append((char) ('a' + i % 26));
+        }
+        List<ILoggingEvent> events = new ArrayList<>();
+        events.add(event(message.toString(), wrap(30, new IllegalStateException("long"))));
+        events.add(event("short", null));
+        events.add(event(UNMAPPABLE, new IllegalStateException(message.toString())));
+        events.add(event("short again", wrap(1, new IllegalStateException("short"))));
+        assertSameBytes(StandardCharsets.UTF_8, events.toArray(new ILoggingEvent[0]));
+        assertSameBytes(Charset.forName("GBK"), events.toArray(new ILoggingEvent[0]));
+    }
+
+    private static void assertSameBytes(Charset charset, ILoggingEvent... events) {
+        for (String pattern : Arrays.asList(PATTERN, SKIP_PATTERN, SHORT_PATTERN)) {
+            LoggerContext context = newContext();
+            List<byte[]> expected = encode(new PatternLayoutEncoder(), context, pattern, charset, events);
+            List<byte[]> actual = encode(new NoiseLessPatternLayoutEncoder(), context, pattern, charset, events);
+            for (int i = 0; i < events.length; i++) {
+                byte[] expectedBytes = expected.get(i);
+                byte[] actualBytes = actual.get(i);
+                Charset decoding = charset == null ? Charset.defaultCharset() : charset;
+                assertArrayEquals(expectedBytes, actualBytes, () -> pattern + " " + decoding + "\n" + new String(expectedBytes, decoding)
+                        + "\n----\n" + new String(actualBytes, decoding));
+            }
+        }
+    }
+
+    /**
+     * 同一个编码器依次编码所有事件，覆盖缓冲区的扩容和复用
+     */
+    private static List<byte[]> encode(PatternLayoutEncoderBase<ILoggingEvent> encoder, LoggerContext context, String pattern,
+                                       Charset charset, ILoggingEvent... events) {
+        encoder.setContext(context);
+        encoder.setPattern(pattern);
+        encoder.setCharset(charset);
+        encoder.start();
+        try {
+            List<byte[]> encoded = new ArrayList<>();
+            for (ILoggingEvent event : events) {
+                encoded.add(encoder.encode(event));
+            }
+            return encoded;
+        } finally {
+            encoder.stop();
+        }
+    }
+
+    private static LoggerContext newContext() {
+        LoggerContext context = new LoggerContext();
+        Map<String, String> rules = new HashMap<>();
+        rules.put("wEx", ExtensibleExtendedWhitespaceThrowableProxyConverter.class.getName());
+        context.putObject(CoreConstants.PATTERN_RULE_REGISTRY, rules);
+        return context;
+    }
+
+    private static ILoggingEvent event(String message, Throwable throwable) {
+        LoggerContext context = new LoggerContext();
+        LoggingEvent event = new LoggingEvent(NoiseLessPatternLayoutEncoderTests.class.getName(),
+                context.getLogger(NoiseLessPatternLayoutEncoderTests.class), Level.ERROR, message, throwable, null);
+        //提前计算所有惰性字段，两个编码器看到相同的事件
+        event.prepareForDeferredProcessing();
+        return event;
+    }
+
+    /**
+     * 在不同的调用深度包装，使每层 cause 的公共帧数量不同
+     */
+    private static RuntimeException wrap(int depth, Exception cause) {
+        if (depth > 0) {
+            return wrap(depth - 1, cause);
+        }
+        return new RuntimeException("wrapped " + cause.getMessage(), cause);
+    }
+}